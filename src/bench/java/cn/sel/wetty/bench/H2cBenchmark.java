@@ -0,0 +1,132 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Erlu Shang (sel8616@gmail.com/philshang@163.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package cn.sel.wetty.bench;
+
+import org.eclipse.jetty.client.AbstractConnectionPool;
+import org.eclipse.jetty.client.ConnectionPool;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.HttpClientTransport;
+import org.eclipse.jetty.client.HttpDestination;
+import org.eclipse.jetty.client.api.Destination;
+import org.eclipse.jetty.client.http.HttpClientTransportOverHTTP;
+import org.eclipse.jetty.http2.client.HTTP2Client;
+import org.eclipse.jetty.http2.client.http.HttpClientTransportOverHTTP2;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends the same mix of '/msg' and '/obj' calls over HTTP/1.1 and over h2c(prior knowledge) to a running instance started with 'h2c=on',
+ * then prints the connections each client needed, the latency percentiles and the throughput.
+ * <p>
+ * Usage: H2cBenchmark [baseUrl] [requests] [concurrency]
+ */
+public class H2cBenchmark
+{
+    private static final String[] PATHS = {"/msg", "/obj"};
+
+    public static void main(String... args)
+            throws Exception
+    {
+        String baseUrl = args.length > 0 ? args[0] : "http://localhost:8080";
+        int requests = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        int concurrency = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        System.out.println(String.format("Target: %s, requests: %d, concurrency: %d", baseUrl, requests, concurrency));
+        run("http/1.1", new HttpClientTransportOverHTTP(), concurrency, baseUrl, requests, concurrency);
+        // One connection carries all the streams, as the server allows up to 'h2streams' of them.
+        run("h2c", new HttpClientTransportOverHTTP2(new HTTP2Client()), 1, baseUrl, requests, concurrency);
+    }
+
+    private static void run(String name, HttpClientTransport transport, int maxConnections, String baseUrl, int requests, int concurrency)
+            throws Exception
+    {
+        HttpClient client = new HttpClient(transport, null);
+        client.setMaxConnectionsPerDestination(maxConnections);
+        client.setMaxRequestsQueuedPerDestination(concurrency * 2);
+        client.start();
+        try
+        {
+            // Warm both sides up before measuring.
+            send(client, baseUrl, Math.min(requests, 2000), concurrency, new long[Math.min(requests, 2000)]);
+            long[] latencies = new long[requests];
+            long begin = System.nanoTime();
+            int failures = send(client, baseUrl, requests, concurrency, latencies);
+            long elapsed = System.nanoTime() - begin;
+            Arrays.sort(latencies);
+            System.out.println(String.format("%-9s connections=%-4d p50=%6.2fms p99=%6.2fms max=%7.2fms throughput=%8.0f req/s failures=%d", name,
+                    countConnections(client), millis(latencies[requests / 2]), millis(latencies[(int)(requests * 0.99)]),
+                    millis(latencies[requests - 1]), requests * 1e9 / elapsed, failures));
+        } finally
+        {
+            client.stop();
+        }
+    }
+
+    private static int send(HttpClient client, String baseUrl, int requests, int concurrency, long[] latencies)
+            throws InterruptedException
+    {
+        Semaphore permits = new Semaphore(concurrency);
+        CountDownLatch done = new CountDownLatch(requests);
+        AtomicInteger failures = new AtomicInteger();
+        for(int i = 0; i < requests; i++)
+        {
+            permits.acquire();
+            int index = i;
+            long start = System.nanoTime();
+            client.newRequest(baseUrl + PATHS[i % PATHS.length]).timeout(30, TimeUnit.SECONDS).send(result -> {
+                latencies[index] = System.nanoTime() - start;
+                if(result.isFailed() || result.getResponse().getStatus() != 200)
+                {
+                    failures.incrementAndGet();
+                }
+                permits.release();
+                done.countDown();
+            });
+        }
+        done.await();
+        return failures.get();
+    }
+
+    private static int countConnections(HttpClient client)
+    {
+        int count = 0;
+        for(Destination destination : client.getDestinations())
+        {
+            ConnectionPool pool = ((HttpDestination)destination).getConnectionPool();
+            if(pool instanceof AbstractConnectionPool)
+            {
+                count += ((AbstractConnectionPool)pool).getConnectionCount();
+            }
+        }
+        return count;
+    }
+
+    private static double millis(long nanos)
+    {
+        return nanos / 1e6;
+    }
+}
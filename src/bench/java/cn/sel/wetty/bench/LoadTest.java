@@ -0,0 +1,322 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Erlu Shang (sel8616@gmail.com/philshang@163.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package cn.sel.wetty.bench;
+
+import cn.sel.wetty.Main;
+import cn.sel.wetty.metrics.LatencyHistogram;
+import org.eclipse.jetty.client.HttpClient;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Starts the war in this JVM through {@link Main} on a free port, sends '/msg', '/obj' and '/home' in turn at a fixed rate(open loop),
+ * reports throughput and latency percentiles and compares them with a baseline.
+ * <p>
+ * Latencies are taken from the moment a request was due, not from when it was sent, so a stalled server shows up in the percentiles
+ * instead of merely slowing the load down.
+ * <p>
+ * Usage: LoadTest [rate=500] [duration=30] [warmup=5] [concurrency=64] [threshold=0.2] [slack=1] [baseline=file] [report=file] [update=true]
+ * [start="more start options"]
+ * <p>
+ * Exits with 1 if the p99 of an endpoint grew or its throughput fell by more than 'threshold'(p99 changes below 'slack' ms are ignored),
+ * with 2 if the baseline was recorded with other load options and with 3 if the test could not run. Without a baseline, or with 'update=true', the results become the baseline.
+ */
+public class LoadTest
+{
+    private static final String[] PATHS = {"/msg", "/obj", "/home"};
+    private static final String ALL = "all";
+    private static final String ID = "loadtest";
+    private static final long READY_TIMEOUT = 120000;
+
+    public static void main(String... args)
+            throws Exception
+    {
+        Map<String, String> options = new HashMap<>();
+        for(String arg : args)
+        {
+            int index = arg.indexOf('=');
+            if(index > 0)
+            {
+                options.put(arg.substring(0, index), arg.substring(index + 1));
+            }
+        }
+        int rate = Integer.parseInt(options.getOrDefault("rate", "500"));
+        int duration = Integer.parseInt(options.getOrDefault("duration", "30"));
+        int warmup = Integer.parseInt(options.getOrDefault("warmup", "5"));
+        int concurrency = Integer.parseInt(options.getOrDefault("concurrency", "64"));
+        double threshold = Double.parseDouble(options.getOrDefault("threshold", "0.2"));
+        double slack = Double.parseDouble(options.getOrDefault("slack", "1"));
+        File baseline = new File(options.getOrDefault("baseline", "loadtest-baseline.properties"));
+        File report = new File(options.getOrDefault("report", "loadtest-report.properties"));
+        boolean update = Boolean.parseBoolean(options.getOrDefault("update", "false"));
+        String start = options.getOrDefault("start", "").trim();
+        int port = findFreePort();
+        List<String> startArgs = new ArrayList<>(Arrays.asList("start", "port=" + port, "id=" + ID));
+        if(!start.isEmpty())
+        {
+            startArgs.addAll(Arrays.asList(start.split("\\s+")));
+        }
+        Thread server = new Thread(()->Main.main(startArgs.toArray(new String[startArgs.size()])), "LoadTest-Server");
+        server.setDaemon(true);
+        server.start();
+        HttpClient client = new HttpClient();
+        client.setMaxConnectionsPerDestination(concurrency);
+        // Up to 10s of load may wait for a connection, beyond that requests fail and count as errors.
+        client.setMaxRequestsQueuedPerDestination(rate * 10);
+        client.start();
+        int exitCode;
+        try
+        {
+            String baseUrl = "http://127.0.0.1:" + port;
+            awaitReady(client, baseUrl, server);
+            System.out.println(String.format("Load: %d req/s for %ds(+%ds warm-up), concurrency: %d, options: %s", rate, duration, warmup, concurrency, startArgs));
+            if(warmup > 0)
+            {
+                run(client, baseUrl, rate, warmup);
+            }
+            Properties results = run(client, baseUrl, rate, duration);
+            results.setProperty("load", String.format("rate=%d duration=%d concurrency=%d start=%s", rate, duration, concurrency, start));
+            print(results);
+            store(results, report, "Load test results");
+            System.out.println("Report: " + report.getAbsolutePath());
+            if(update || !baseline.isFile())
+            {
+                store(results, baseline, "Load test baseline");
+                System.out.println("Baseline recorded: " + baseline.getAbsolutePath());
+                exitCode = 0;
+            } else
+            {
+                exitCode = compare(results, load(baseline), threshold, slack);
+            }
+        } catch(Exception e)
+        {
+            e.printStackTrace();
+            exitCode = 3;
+        } finally
+        {
+            client.stop();
+        }
+        // The launcher's shutdown hook stops the server.
+        System.exit(exitCode);
+    }
+
+    private static int findFreePort()
+            throws IOException
+    {
+        try(ServerSocket socket = new ServerSocket(0))
+        {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void awaitReady(HttpClient client, String baseUrl, Thread server)
+            throws Exception
+    {
+        long deadline = System.currentTimeMillis() + READY_TIMEOUT;
+        while(System.currentTimeMillis() < deadline)
+        {
+            if(!server.isAlive())
+            {
+                throw new IllegalStateException("The server failed to start!");
+            }
+            try
+            {
+                if(client.GET(baseUrl + PATHS[0]).getStatus() == 200)
+                {
+                    return;
+                }
+            } catch(Exception ignored)
+            {
+            }
+            Thread.sleep(200);
+        }
+        throw new IllegalStateException("The server did not get ready in time!");
+    }
+
+    private static Properties run(HttpClient client, String baseUrl, int rate, int seconds)
+            throws InterruptedException
+    {
+        LatencyHistogram[] latencies = new LatencyHistogram[PATHS.length + 1];
+        AtomicInteger[] errors = new AtomicInteger[PATHS.length + 1];
+        for(int i = 0; i < latencies.length; i++)
+        {
+            latencies[i] = new LatencyHistogram();
+            errors[i] = new AtomicInteger();
+        }
+        int total = rate * seconds;
+        long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+        CountDownLatch done = new CountDownLatch(total);
+        long begin = System.nanoTime();
+        for(int i = 0; i < total; i++)
+        {
+            long due = begin + i * interval;
+            long delay;
+            while((delay = due - System.nanoTime()) > 0)
+            {
+                LockSupport.parkNanos(delay);
+            }
+            int endpoint = i % PATHS.length;
+            client.newRequest(baseUrl + PATHS[endpoint]).timeout(30, TimeUnit.SECONDS).send(result->{
+                long micros = (System.nanoTime() - due) / 1000;
+                latencies[endpoint].record(micros);
+                latencies[PATHS.length].record(micros);
+                if(result.isFailed() || result.getResponse().getStatus() != 200)
+                {
+                    errors[endpoint].incrementAndGet();
+                    errors[PATHS.length].incrementAndGet();
+                }
+                done.countDown();
+            });
+        }
+        if(!done.await(60, TimeUnit.SECONDS))
+        {
+            throw new IllegalStateException(String.format("%d request(s) still pending after 60s!", done.getCount()));
+        }
+        double elapsed = (System.nanoTime() - begin) / 1e9;
+        Properties results = new Properties();
+        for(int i = 0; i < latencies.length; i++)
+        {
+            String name = i < PATHS.length ? PATHS[i].substring(1) : ALL;
+            LatencyHistogram.Snapshot snapshot = latencies[i].snapshot();
+            results.setProperty(name + ".throughput", String.format(Locale.ROOT, "%.1f", (snapshot.getCount() - errors[i].get()) / elapsed));
+            results.setProperty(name + ".errors", String.valueOf(errors[i].get()));
+            results.setProperty(name + ".p50", millis(snapshot.getValueAt(0.5)));
+            results.setProperty(name + ".p90", millis(snapshot.getValueAt(0.9)));
+            results.setProperty(name + ".p99", millis(snapshot.getValueAt(0.99)));
+            results.setProperty(name + ".p999", millis(snapshot.getValueAt(0.999)));
+            results.setProperty(name + ".max", millis(snapshot.getMax()));
+        }
+        return results;
+    }
+
+    private static void print(Properties results)
+    {
+        String format = "%-8s%12s%8s%10s%10s%10s%10s%10s";
+        System.out.println(String.format(format, "PATH", "REQ/S", "ERRORS", "P50(ms)", "P90(ms)", "P99(ms)", "P999(ms)", "MAX(ms)"));
+        List<String> names = new ArrayList<>();
+        for(String path : PATHS)
+        {
+            names.add(path.substring(1));
+        }
+        names.add(ALL);
+        for(String name : names)
+        {
+            System.out.println(String.format(format, name, results.getProperty(name + ".throughput"), results.getProperty(name + ".errors"),
+                    results.getProperty(name + ".p50"), results.getProperty(name + ".p90"), results.getProperty(name + ".p99"),
+                    results.getProperty(name + ".p999"), results.getProperty(name + ".max")));
+        }
+    }
+
+    private static int compare(Properties results, Properties baseline, double threshold, double slack)
+    {
+        if(!results.getProperty("load").equals(baseline.getProperty("load")))
+        {
+            System.err.println(String.format("The baseline was recorded with other load options(%s), rerun with them or update the baseline.",
+                    baseline.getProperty("load")));
+            return 2;
+        }
+        List<String> regressions = new ArrayList<>();
+        for(String key : results.stringPropertyNames())
+        {
+            String expected = baseline.getProperty(key);
+            if(expected == null)
+            {
+                continue;
+            }
+            if(key.endsWith(".p99"))
+            {
+                double before = Double.parseDouble(expected);
+                double after = Double.parseDouble(results.getProperty(key));
+                if(after > before * (1 + threshold) && after - before > slack)
+                {
+                    regressions.add(String.format("%s: %.2fms -> %.2fms", key, before, after));
+                }
+            } else if(key.endsWith(".throughput"))
+            {
+                double before = Double.parseDouble(expected);
+                double after = Double.parseDouble(results.getProperty(key));
+                if(after < before * (1 - threshold))
+                {
+                    regressions.add(String.format("%s: %.1f -> %.1f req/s", key, before, after));
+                }
+            }
+        }
+        if(regressions.isEmpty())
+        {
+            System.out.println(String.format("No regression beyond %.0f%% against the baseline.", threshold * 100));
+            return 0;
+        }
+        regressions.sort(null);
+        System.err.println(String.format("Regressions beyond %.0f%% against the baseline:", threshold * 100));
+        regressions.forEach(regression->System.err.println("  " + regression));
+        return 1;
+    }
+
+    private static String millis(long micros)
+    {
+        return String.format(Locale.ROOT, "%.2f", micros / 1000.0);
+    }
+
+    private static Properties load(File file)
+            throws IOException
+    {
+        Properties properties = new Properties();
+        try(InputStream in = new FileInputStream(file))
+        {
+            properties.load(in);
+        }
+        return properties;
+    }
+
+    private static void store(Properties properties, File file, String comments)
+            throws IOException
+    {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if(!dir.isDirectory() && !dir.mkdirs())
+        {
+            throw new IOException("Failed to create " + dir);
+        }
+        try(OutputStream out = new FileOutputStream(file))
+        {
+            properties.store(out, comments);
+        }
+    }
+}
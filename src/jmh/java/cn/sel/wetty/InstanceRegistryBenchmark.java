@@ -0,0 +1,88 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Erlu Shang (sel8616@gmail.com/philshang@163.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package cn.sel.wetty;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads and updates of the instance registry('pid.reg') holding the given number of instances.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InstanceRegistryBenchmark
+{
+    @Param({"1", "10", "100", "1000"})
+    private int instances;
+    private File dir;
+    private Main.InstanceRegistry registry;
+    private Main.ServerInstance extra;
+
+    @Setup
+    public void setUp()
+            throws Exception
+    {
+        dir = Files.createTempDirectory("wetty-jmh").toFile();
+        registry = Main.InstanceRegistry.open(new File(dir, "pid.reg"), new File(dir, "pid.pid"));
+        for(int i = 0; i < instances; i++)
+        {
+            registry.register(new Main.ServerInstance(100000 + i, i, 10000 + i, "", "id" + i, "/", "pool(8-200,queue=unbounded)", 10000));
+        }
+        extra = new Main.ServerInstance(99999, 0, 9999, "", "extra", "/", "pool(8-200,queue=unbounded)", 10000);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        registry.close();
+        new File(dir, "pid.reg").delete();
+        dir.delete();
+    }
+
+    @Benchmark
+    public List<Main.ServerInstance> read()
+            throws Exception
+    {
+        return registry.read();
+    }
+
+    /**
+     * 'start' and 'stop' of one instance next to the others.
+     */
+    @Benchmark
+    public int registerAndRemove()
+            throws Exception
+    {
+        registry.register(extra);
+        return registry.remove(extra::equals);
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Erlu Shang (sel8616@gmail.com/philshang@163.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package cn.sel.wetty;
+
+import org.springframework.beans.factory.BeanFactoryUtils;
+import org.springframework.core.annotation.AnnotationAwareOrderComparator;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockServletConfig;
+import org.springframework.mock.web.MockServletContext;
+import org.springframework.web.context.WebApplicationContext;
+import org.springframework.web.servlet.DispatcherServlet;
+import org.springframework.web.servlet.HandlerAdapter;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter;
+
+import javax.servlet.ServletException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The webapp's DispatcherServlet booted from 'servlet-context.xml' on mock servlet objects, as configured in web.xml.
+ */
+public class MockWebStack
+{
+    private final DispatcherServlet servlet;
+
+    public MockWebStack()
+            throws ServletException
+    {
+        servlet = new DispatcherServlet();
+        servlet.setContextConfigLocation("classpath:/servlet-context.xml");
+        servlet.init(new MockServletConfig(new MockServletContext(), "sysServlet"));
+    }
+
+    public WebApplicationContext getContext()
+    {
+        return servlet.getWebApplicationContext();
+    }
+
+    /**
+     * @return the converter of the given type that {@code @ResponseBody} methods are written with: the one of the first
+     * RequestMappingHandlerAdapter in the order the DispatcherServlet tries its adapters.
+     */
+    public <T extends HttpMessageConverter<?>> T getMessageConverter(Class<T> type)
+    {
+        List<HandlerAdapter> adapters = new ArrayList<>(BeanFactoryUtils.beansOfTypeIncludingAncestors(getContext(), HandlerAdapter.class, true, false).values());
+        AnnotationAwareOrderComparator.sort(adapters);
+        for(HandlerAdapter adapter : adapters)
+        {
+            if(adapter instanceof RequestMappingHandlerAdapter)
+            {
+                for(HttpMessageConverter<?> converter : ((RequestMappingHandlerAdapter)adapter).getMessageConverters())
+                {
+                    if(type.isInstance(converter))
+                    {
+                        return type.cast(converter);
+                    }
+                }
+                break;
+            }
+        }
+        throw new IllegalStateException("No " + type.getSimpleName() + " configured!");
+    }
+
+    /**
+     * @return the response to a GET of the path, with the headers a browser would send.
+     */
+    public MockHttpServletResponse get(String path)
+            throws ServletException, IOException
+    {
+        MockHttpServletRequest request = createRequest(path);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        servlet.service(request, response);
+        return response;
+    }
+
+    public void destroy()
+    {
+        servlet.destroy();
+    }
+
+    public static MockHttpServletRequest createRequest(String path)
+    {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", path);
+        request.setRemoteAddr("127.0.0.1");
+        request.addHeader("Host", "localhost:8080");
+        request.addHeader("User-Agent", "Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/120.0 Safari/537.36");
+        request.addHeader("Accept", "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8");
+        request.addHeader("Accept-Encoding", "gzip, deflate, br");
+        request.addHeader("Accept-Language", "en-US,en;q=0.9");
+        request.addHeader("Connection", "keep-alive");
+        return request;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Erlu Shang (sel8616@gmail.com/philshang@163.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package cn.sel.wetty.controller;
+
+import cn.sel.wetty.MockWebStack;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A full DispatcherServlet round trip(interceptors, handler mapping, controller, message conversion) on mock servlet objects.
+ * The AccessLogger writes to 'logs/access.log' under the working directory and drops what its buffer cannot take.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DispatcherBenchmark
+{
+    private MockWebStack stack;
+
+    @Setup
+    public void setUp()
+            throws Exception
+    {
+        stack = new MockWebStack();
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        stack.destroy();
+    }
+
+    @Benchmark
+    public MockHttpServletResponse msg()
+            throws Exception
+    {
+        return stack.get("/msg");
+    }
+
+    @Benchmark
+    public MockHttpServletResponse obj()
+            throws Exception
+    {
+        return stack.get("/obj");
+    }
+}
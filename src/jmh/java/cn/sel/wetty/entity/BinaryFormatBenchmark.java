@@ -0,0 +1,179 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Erlu Shang (sel8616@gmail.com/philshang@163.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package cn.sel.wetty.entity;
+
+import cn.sel.wetty.converter.MappingJackson2CborHttpMessageConverter;
+import cn.sel.wetty.converter.MappingJackson2SmileHttpMessageConverter;
+import cn.sel.wetty.converter.PrecompiledJackson2HttpMessageConverter;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.AbstractJackson2HttpMessageConverter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes and decodes {@link TestEntity} payloads with the JSON, Smile and CBOR converters of the webapp. The payload sizes are printed at
+ * setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BinaryFormatBenchmark
+{
+    private static final Type LIST_TYPE = new ParameterizedTypeReference<List<TestEntity>>()
+    {
+    }.getType();
+
+    @Param({"json", "smile", "cbor"})
+    private String format;
+    /**
+     * One entity, or a list of 100.
+     */
+    @Param({"1", "100"})
+    private int count;
+    private AbstractJackson2HttpMessageConverter converter;
+    private MediaType mediaType;
+    private Object payload;
+    private Type type;
+    private byte[] encoded;
+
+    @Setup
+    public void setUp()
+            throws IOException
+    {
+        switch(format)
+        {
+            case "json":
+                converter = new PrecompiledJackson2HttpMessageConverter();
+                break;
+            case "smile":
+                converter = new MappingJackson2SmileHttpMessageConverter();
+                break;
+            case "cbor":
+                converter = new MappingJackson2CborHttpMessageConverter();
+                break;
+            default:
+                throw new IllegalArgumentException(format);
+        }
+        mediaType = converter.getSupportedMediaTypes().get(0);
+        if(count == 1)
+        {
+            payload = new TestEntity(123, "Wetty", new Date());
+            type = TestEntity.class;
+        } else
+        {
+            List<TestEntity> list = new ArrayList<>(count);
+            for(int i = 0; i < count; i++)
+            {
+                list.add(new TestEntity(i, "Wetty-" + i, new Date()));
+            }
+            payload = list;
+            type = LIST_TYPE;
+        }
+        Output output = new Output();
+        converter.write(payload, type, mediaType, output);
+        encoded = output.body.toByteArray();
+        System.out.printf("%n%s, %d entities: %d bytes%n", format, count, encoded.length);
+    }
+
+    @Benchmark
+    public int encode(Output output)
+            throws IOException
+    {
+        output.reset();
+        converter.write(payload, type, mediaType, output);
+        return output.body.size();
+    }
+
+    @Benchmark
+    public Object decode()
+            throws IOException
+    {
+        return converter.read(type, null, new Input(encoded));
+    }
+
+    @State(Scope.Thread)
+    public static class Output implements HttpOutputMessage
+    {
+        private final HttpHeaders headers = new HttpHeaders();
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream(8192);
+
+        void reset()
+        {
+            headers.clear();
+            body.reset();
+        }
+
+        @Override
+        public HttpHeaders getHeaders()
+        {
+            return headers;
+        }
+
+        @Override
+        public OutputStream getBody()
+        {
+            return body;
+        }
+    }
+
+    private static class Input implements HttpInputMessage
+    {
+        private final HttpHeaders headers = new HttpHeaders();
+        private final InputStream body;
+
+        Input(byte[] body)
+        {
+            this.body = new ByteArrayInputStream(body);
+        }
+
+        @Override
+        public HttpHeaders getHeaders()
+        {
+            return headers;
+        }
+
+        @Override
+        public InputStream getBody()
+        {
+            return body;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Erlu Shang (sel8616@gmail.com/philshang@163.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package cn.sel.wetty.entity;
+
+import cn.sel.wetty.converter.PrecompiledJackson2HttpMessageConverter;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializes a {@link TestEntity} as '/obj' does: with Spring's generic Jackson converter, with writers cached per type, and with writers
+ * cached per type on Afterburner's generated accessors(the webapp's configuration). The body goes to a reused buffer, so the allocation
+ * rate is the converter's own.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonBenchmark
+{
+    @Param({"generic", "precompiled", "afterburner"})
+    private String converter;
+    private MappingJackson2HttpMessageConverter jsonConverter;
+    private TestEntity entity;
+
+    @Setup
+    public void setUp()
+    {
+        if("generic".equals(converter))
+        {
+            jsonConverter = new MappingJackson2HttpMessageConverter();
+        } else
+        {
+            PrecompiledJackson2HttpMessageConverter precompiled = new PrecompiledJackson2HttpMessageConverter();
+            precompiled.setAfterburner("afterburner".equals(converter));
+            jsonConverter = precompiled;
+        }
+        entity = new TestEntity(123, "Wetty", new Date());
+    }
+
+    @Benchmark
+    public int write(Body body)
+            throws IOException
+    {
+        body.reset();
+        jsonConverter.write(entity, MediaType.APPLICATION_JSON_UTF8, body);
+        return body.stream.size();
+    }
+
+    @State(Scope.Thread)
+    public static class Body implements HttpOutputMessage
+    {
+        private final HttpHeaders headers = new HttpHeaders();
+        private final ByteArrayOutputStream stream = new ByteArrayOutputStream(256);
+
+        void reset()
+        {
+            headers.clear();
+            stream.reset();
+        }
+
+        @Override
+        public HttpHeaders getHeaders()
+        {
+            return headers;
+        }
+
+        @Override
+        public OutputStream getBody()
+        {
+            return stream;
+        }
+    }
+}
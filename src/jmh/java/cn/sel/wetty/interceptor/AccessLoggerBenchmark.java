@@ -0,0 +1,116 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Erlu Shang (sel8616@gmail.com/philshang@163.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package cn.sel.wetty.interceptor;
+
+import cn.sel.wetty.MockWebStack;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per-request work of the AccessLogger: the header and message formatting of the verbose mode and the capture of the async mode.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AccessLoggerBenchmark
+{
+    private AccessLogger logger;
+    private MockHttpServletRequest request;
+    private MockHttpServletResponse response;
+    private Path logDir;
+    private AsyncAccessLog asyncLog;
+
+    @Setup
+    public void setUp()
+            throws Exception
+    {
+        logger = new AccessLogger();
+        request = MockWebStack.createRequest("/obj");
+        request.setQueryString("id=123&name=wetty");
+        request.addParameter("id", "123");
+        request.addParameter("name", "wetty");
+        response = new MockHttpServletResponse();
+        response.setStatus(200);
+        response.setContentType("application/json;charset=UTF-8");
+        response.setContentLength(48);
+        response.setHeader("Date", "Sat, 17 Oct 2026 04:53:55 GMT");
+        logDir = Files.createTempDirectory("wetty-jmh");
+        // The writer cannot keep up with a single-threaded loop, so this measures claiming a slot and dropping alike.
+        asyncLog = new AsyncAccessLog(logDir.resolve("access.log"), 8192, new String[]{"User-Agent"}, new String[]{"id"}, 64 << 20, 1);
+    }
+
+    @TearDown
+    public void tearDown()
+            throws Exception
+    {
+        asyncLog.close();
+        try(DirectoryStream<Path> files = Files.newDirectoryStream(logDir))
+        {
+            for(Path file : files)
+            {
+                Files.delete(file);
+            }
+        }
+        Files.delete(logDir);
+    }
+
+    @Benchmark
+    public String requestHeaders()
+    {
+        return logger.getHeaders(request);
+    }
+
+    @Benchmark
+    public String responseHeaders()
+    {
+        return logger.getHeaders(response);
+    }
+
+    @Benchmark
+    public String formatRequest()
+    {
+        return logger.formatRequest(request);
+    }
+
+    @Benchmark
+    public String formatResponse()
+    {
+        return logger.formatResponse(request, response);
+    }
+
+    @Benchmark
+    public boolean asyncCapture()
+    {
+        return asyncLog.log(request, 200, 1_500_000);
+    }
+}
@@ -23,21 +23,94 @@
  */
 package cn.sel.wetty;
 
+import cn.sel.wetty.metrics.LatencyHistogram;
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.io.ArrayByteBufferPool;
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.io.ChannelEndPoint;
+import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.io.ManagedSelector;
+import org.eclipse.jetty.io.SelectorManager;
+import org.eclipse.jetty.server.AbstractConnector;
+import org.eclipse.jetty.server.ConnectionFactory;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.HttpChannel;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
 import org.eclipse.jetty.server.NetworkTrafficServerConnector;
+import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.ContextHandlerCollection;
+import org.eclipse.jetty.server.handler.HandlerWrapper;
+import org.eclipse.jetty.server.handler.StatisticsHandler;
+import org.eclipse.jetty.server.handler.gzip.GzipHandler;
+import org.eclipse.jetty.util.BlockingArrayQueue;
+import org.eclipse.jetty.util.IO;
+import org.eclipse.jetty.util.component.ContainerLifeCycle;
+import org.eclipse.jetty.util.thread.Invocable;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ScheduledExecutorScheduler;
+import org.eclipse.jetty.util.thread.Scheduler;
+import org.eclipse.jetty.util.thread.ThreadPool;
 import org.eclipse.jetty.webapp.WebAppContext;
 
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.io.*;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.management.GarbageCollectorMXBean;
 import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
 import java.lang.management.RuntimeMXBean;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.SocketOption;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
 import java.net.URL;
 import java.net.URLDecoder;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
 import java.security.ProtectionDomain;
 import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarEntry;
+import java.util.function.IntConsumer;
+import java.util.function.Predicate;
+import java.util.jar.JarFile;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.Deflater;
 
 /**
  */
@@ -49,15 +122,37 @@ public class Main
     private static final String DEFAULT_ID = "UNKNOWN_ID";
     private static final Pattern REG_INST_ID = Pattern.compile("[A-Za-z0-9]{1,32}");
     private static final Pattern REG_CONTEXT = Pattern.compile("[/]?[A-Za-z][A-Za-z0-9_-]*");
+    private static final Pattern REG_THREADS = Pattern.compile("(\\d+)-(\\d+)");
+    private static final Pattern REG_WEB_DIR = Pattern.compile("webapp-[0-9a-f]{32}(\\.\\d+\\.tmp)?");
+    private static final Pattern REG_LAUNCHER_ENTRY = Pattern.compile("(META-INF|org/eclipse/jetty|javax/servlet)/.*|(?!WEB-INF/).*\\.class");
+    private static final String WEB_DIR_PREFIX = "webapp-";
+    private static final String WEB_DIR_MARKER = ".extracted";
+    private static final String INDEX_FILENAME = "WEB-INF/wetty.index";
+    private static final String INDEX_PROFILE = "indexed";
+    private static final String BOOT_SCAN = "scan";
+    private static final String BOOT_INDEX = "index";
+    private static final String EXEC_POOL = "pool";
+    private static final String EXEC_VIRTUAL = "virtual";
     private static final ProtectionDomain DOMAIN = Main.class.getProtectionDomain();
-    private static final Server JETTY_SERVER = new Server();
+    private static final ContextHandlerCollection CONTEXTS = new ContextHandlerCollection();
+    private static final List<AppConfig> APPS = new ArrayList<>();
     private static final int SIGN_TERM = 15;
+    private static final long STOP_TIMEOUT = 30000;
+    private static final long STOP_POLL_INTERVAL = 250;
+    private static final int DEFAULT_DRAIN_TIMEOUT = 10000;
+    private static final long READY_TIMEOUT = 120000;
+    private static final long STATS_INTERVAL = 1000;
     private static final File WORK_DIR;
+    private static final File STATS_DIR;
     private static final String PID_FILENAME;
+    private static final String REGISTRY_FILENAME;
     private static final String WAR_FILENAME;
     private static final int CUR_PID;
-    private static FileChannel PID_CHANNEL;
-    private static FileLock PID_LOCK;
+    private static final long CUR_START_TIME;
+    private static Server JETTY_SERVER;
+    private static InstanceRegistry REGISTRY;
+    private static FileLock WEB_DIR_LEASE;
+    private static int DRAIN_TIMEOUT = DEFAULT_DRAIN_TIMEOUT;
     //endregion
     //
     //region Initialization
@@ -68,10 +163,13 @@ public class Main
             if(isLinux() || isWindows())
             {
                 CUR_PID = getCurPid();
+                CUR_START_TIME = getProcessStartTime(CUR_PID);
                 WAR_FILENAME = getWarFilename();
                 String curDir = new File(WAR_FILENAME).getParent();
                 WORK_DIR = new File(curDir, "work");
+                STATS_DIR = new File(WORK_DIR, "stats");
                 PID_FILENAME = curDir + File.separator + "pid.pid";
+                REGISTRY_FILENAME = curDir + File.separator + "pid.reg";
             } else
             {
                 throw new IllegalStateException("Unsupported OS!");
@@ -111,8 +209,11 @@ public class Main
             {
                 try
                 {
-                    info("hook~~");
-                    shutdown();
+                    if(isRunning())
+                    {
+                        info("hook~~");
+                        stopApps(new ArrayList<>(APPS));
+                    }
                 } catch(Exception e)
                 {
                     e.printStackTrace();
@@ -127,7 +228,7 @@ public class Main
         try
         {
             addShutdownHook();
-            lock();
+            REGISTRY = InstanceRegistry.open(new File(REGISTRY_FILENAME), new File(PID_FILENAME));
             if(args.length > 0)
             {
                 String cmd = args[0];
@@ -137,14 +238,20 @@ public class Main
                         startup(args);
                         break;
                     case "stop":
-                        shutdown(args);
+                        shutdown(Arrays.copyOfRange(args, 1, args.length));
                         break;
                     case "kill":
-                        kill(args);
+                        kill(Arrays.copyOfRange(args, 1, args.length));
+                        break;
+                    case "restart":
+                        restart(Arrays.copyOfRange(args, 1, args.length));
                         break;
                     case "list":
                         list();
                         break;
+                    case "stats":
+                        stats(Arrays.copyOfRange(args, 1, args.length));
+                        break;
                     case "h":
                     case "help":
                         help();
@@ -163,7 +270,10 @@ public class Main
             e.printStackTrace();
         } finally
         {
-            unlock();
+            if(REGISTRY != null)
+            {
+                REGISTRY.close();
+            }
         }
     }
 
@@ -171,22 +281,70 @@ public class Main
     private static void startup(String... args)
             throws Exception
     {
-        int port = getPort(args);
-        String ctx = getContextPath(args);
-        String id = getInstanceId(args);
+        List<AppConfig> apps = getApps(args);
+        String boot = getBootMode(args);
+        String exec = getExecMode(args);
+        int[] threads = getThreads(args);
+        int queueSize = getQueueSize(args);
+        String execution = describeExecution(exec, threads, queueSize);
+        ConnectorConfig connectorConfig = getConnectorConfig(args);
+        GzipConfig gzipConfig = getGzipConfig(args);
+        DRAIN_TIMEOUT = getNumber("drain", 0, DEFAULT_DRAIN_TIMEOUT, args);
+        int replacedPid = getNumber("replace", 0, 0, args);
+        long replacedStartTime = replacedPid > 0 ? getProcessStartTime(replacedPid) : 0;
+        connectorConfig.takeOver = replacedPid > 0;
         logo();
         info();
         info("******** Process ID(PID): " + CUR_PID);
-        info("******** Instance ID    : " + id);
-        info("******** Servlet Port   : " + port);
-        info("******** Context Path   : " + ctx);
+        for(AppConfig app : apps)
+        {
+            info("******** Instance ID    : " + app.id);
+            info("******** Servlet Port   : " + (app.port > 0 ? app.port : "none"));
+            if(app.sock != null)
+            {
+                info("******** Unix Socket    : " + app.sock);
+            }
+            info("******** Context Path   : " + app.ctx);
+        }
+        info("******** Boot Mode      : " + boot);
+        info("******** Execution      : " + execution);
+        info("******** Connector      : " + connectorConfig);
+        info("******** Protocols      : " + connectorConfig.describeProtocols());
+        info("******** Compression    : " + gzipConfig);
+        info("******** Drain Timeout  : " + DRAIN_TIMEOUT + "ms");
         info("******** Work Directory : " + WORK_DIR);
         info("******** WAR Filename   : " + WAR_FILENAME);
         prepareWorkDir();
-        initServer(port, ctx);
-        JETTY_SERVER.start();
-        saveInstance(port, id, ctx);
-        unlock();
+        initServer(createThreadPool(exec, threads, queueSize), connectorConfig, gzipConfig, apps, boot);
+        try
+        {
+            JETTY_SERVER.start();
+        } catch(Exception e)
+        {
+            // Connectors which did bind would keep the JVM alive without being registered.
+            JETTY_SERVER.stop();
+            throw e;
+        }
+        info(String.format("Server started in %dms.", ManagementFactory.getRuntimeMXBean().getUptime()));
+        List<ServerInstance> instances = new ArrayList<>();
+        for(AppConfig app : apps)
+        {
+            instances.add(new ServerInstance(CUR_PID, CUR_START_TIME, app.port, app.sock == null ? "" : app.sock, app.id, app.ctx, execution, DRAIN_TIMEOUT));
+        }
+        if(replacedPid > 0)
+        {
+            // Ready: the replaced process starts draining from the moment this one is registered.
+            REGISTRY.swap(inst->isInstanceOf(inst, replacedPid, replacedStartTime), instances);
+            info(String.format("Replaced process %d.", replacedPid));
+        } else
+        {
+            for(ServerInstance inst : instances)
+            {
+                saveInstance(inst);
+            }
+        }
+        watchStopRequests();
+        StatsPublisher.start();
         JETTY_SERVER.join();
         removeCurrent();
         info("Server Stopped.");
@@ -197,26 +355,30 @@ public class Main
     {
         if(args.length > 0)
         {
-            Map<Integer, ServerInstance> map = readPid();
+            List<ServerInstance> instances = REGISTRY.read();
+            List<ServerInstance> targets = new ArrayList<>();
             String[] targetIds = getStoppingIds(args);
             for(String id : targetIds)
             {
-                for(Map.Entry<Integer, ServerInstance> entry : map.entrySet())
+                for(ServerInstance inst : instances)
                 {
-                    int pid = entry.getKey();
-                    ServerInstance inst = entry.getValue();
-                    if(id.equals(inst.id))
+                    if(inst.id.equals(id))
                     {
-                        if(pid == CUR_PID)
+                        if(inst.pid == CUR_PID)
                         {
-                            stopJetty();
+                            stopInstances(Collections.singletonList(inst));
                         } else
                         {
-                            sign(SIGN_TERM, pid);
+                            targets.add(inst);
                         }
                     }
                 }
             }
+            if(!targets.isEmpty())
+            {
+                REGISTRY.requestStop(targets::contains);
+                awaitStopped(targets);
+            }
         } else
         {
             kill();
@@ -226,35 +388,156 @@ public class Main
     private static void kill(String... args)
             throws Exception
     {
-        Map<Integer, ServerInstance> map = readPid();
+        List<ServerInstance> instances = REGISTRY.read();
+        Set<Integer> pids = new LinkedHashSet<>();
+        instances.forEach(inst->pids.add(inst.pid));
         if(args.length > 0)
         {
-            int[] targetPids = getKillingPids(args);
-            for(int pid : targetPids)
+            Set<Integer> targetPids = new LinkedHashSet<>();
+            for(int pid : getKillingPids(args))
+            {
+                targetPids.add(pid);
+            }
+            pids.retainAll(targetPids);
+        }
+        pids.removeIf(pid->pid == CUR_PID);
+        pids.forEach(pid->sign(SIGN_TERM, pid));
+        List<ServerInstance> targets = new ArrayList<>();
+        for(ServerInstance inst : instances)
+        {
+            if(pids.contains(inst.pid))
+            {
+                targets.add(inst);
+            }
+        }
+        awaitStopped(targets);
+    }
+
+    /**
+     * Starts a replacement for the processes hosting the ids with their original command line and 'replace=<pid>'. The replacement binds
+     * the same ports(SO_REUSEPORT) and sockets, and swaps itself into the registry once started; the old process drains and stops then.
+     */
+    private static void restart(String... args)
+            throws Exception
+    {
+        if(!isLinux())
+        {
+            throw new IllegalStateException("Unsupported OS!");
+        }
+        if(args.length == 0)
+        {
+            throw new IllegalArgumentException("Restart requires instance id(s)!");
+        }
+        Set<Integer> pids = new LinkedHashSet<>();
+        List<String> ids = Arrays.asList(getStoppingIds(args));
+        for(ServerInstance inst : REGISTRY.read())
+        {
+            if(ids.contains(inst.id) && !inst.stopRequested && inst.pid != CUR_PID)
+            {
+                pids.add(inst.pid);
+            }
+        }
+        if(pids.isEmpty())
+        {
+            throw new IllegalArgumentException(String.format("No running instance with id(s) -> %s", String.join(", ", args)));
+        }
+        for(int pid : pids)
+        {
+            replace(pid);
+        }
+    }
+
+    private static void replace(int pid)
+            throws Exception
+    {
+        long begin = System.currentTimeMillis();
+        List<String> command = new ArrayList<>();
+        for(String arg : new String(Files.readAllBytes(new File("/proc/" + pid + "/cmdline").toPath()), StandardCharsets.UTF_8).split("\0"))
+        {
+            if(!arg.startsWith("replace="))
+            {
+                command.add(arg);
+            }
+        }
+        int startIndex = command.indexOf("start");
+        if(startIndex < 0)
+        {
+            throw new IllegalStateException(String.format("Process %d was not started by '%s start'!", pid, PROJECT_NAME));
+        }
+        String[] startArgs = command.subList(startIndex, command.size()).toArray(new String[0]);
+        ConnectorConfig connectorConfig = getConnectorConfig(startArgs);
+        for(AppConfig app : getApps(startArgs))
+        {
+            if(app.port > 0 && !connectorConfig.reusePort)
+            {
+                throw new IllegalStateException(String.format("Process %d does not share port %d(start it with reuseport=on)!", pid, app.port));
+            }
+        }
+        command.add("replace=" + pid);
+        long startTime = getProcessStartTime(pid);
+        List<ServerInstance> replaced = new ArrayList<>();
+        Set<Integer> knownPids = new HashSet<>();
+        for(ServerInstance inst : REGISTRY.read())
+        {
+            knownPids.add(inst.pid);
+            if(isInstanceOf(inst, pid, startTime))
             {
-                if(map.containsKey(pid))
+                replaced.add(inst);
+            }
+        }
+        if(replaced.isEmpty())
+        {
+            throw new IllegalStateException(String.format("Process %d is no longer running!", pid));
+        }
+        // The replacement writes where the old process writes, if that is a file.
+        File log = new File("/proc/" + pid + "/fd/1").getCanonicalFile();
+        if(!log.isFile())
+        {
+            log = new File(WORK_DIR, "restart.log");
+        }
+        info(String.format("Starting the replacement of process %d, output -> %s", pid, log));
+        Process process = new ProcessBuilder(command).directory(new File("/proc/" + pid + "/cwd").getCanonicalFile())
+                .redirectOutput(ProcessBuilder.Redirect.appendTo(log)).redirectErrorStream(true).start();
+        long deadline = System.currentTimeMillis() + READY_TIMEOUT;
+        ServerInstance replacement = null;
+        while(replacement == null)
+        {
+            if(!process.isAlive())
+            {
+                throw new IllegalStateException(String.format("The replacement of process %d exited with %d, see %s", pid, process.exitValue(), log));
+            }
+            if(System.currentTimeMillis() > deadline)
+            {
+                process.destroy();
+                throw new IllegalStateException(String.format("The replacement of process %d was not ready in time, see %s", pid, log));
+            }
+            Thread.sleep(STOP_POLL_INTERVAL);
+            for(ServerInstance inst : REGISTRY.read())
+            {
+                if(!knownPids.contains(inst.pid) && replaced.get(0).id.equals(inst.id))
                 {
-                    sign(SIGN_TERM, pid);
+                    replacement = inst;
                 }
             }
-        } else
-        {
-            map.keySet().forEach(pid->sign(SIGN_TERM, pid));
         }
+        info(String.format("Process %d is ready after %dms, draining process %d...", replacement.pid, System.currentTimeMillis() - begin, pid));
+        awaitStopped(replaced);
+        info(String.format("Restarted: %d -> %d in %dms.", pid, replacement.pid, System.currentTimeMillis() - begin));
     }
 
     private static void list()
             throws IOException
     {
-        Map<Integer, ServerInstance> map = readPid();
-        if(map != null && !map.isEmpty())
+        List<ServerInstance> instances = REGISTRY.read();
+        if(!instances.isEmpty())
         {
             String doubleLine = "============================================================";
             String singleLine = "------------------------------------------------------------";
             info(doubleLine);
-            info("PID\t\tPORT\t\tCONTEXT\t\tID");
+            info("PID\t\tPORT\t\tSOCKET\t\tCONTEXT\t\tID\t\tEXECUTION");
             info(singleLine);
-            map.forEach((pid, inst)->info(String.format("%d\t\t%d\t\t%s\t\t%s", pid, inst.port, inst.ctx, inst.id)));
+            instances.forEach(inst->info(String.format("%d\t\t%s\t\t%s\t\t%s\t\t%s\t\t%s", inst.pid, inst.port > 0 ? inst.port : "-",
+                    inst.sock.isEmpty() ? "-" : inst.sock, inst.ctx, inst.id, inst.exec)));
             info(doubleLine);
         } else
         {
@@ -262,6 +545,109 @@ public class Main
         }
     }
 
+    /**
+     * Shows the load of the running instances as published by their processes('work/stats/<pid>.properties').
+     * With '--watch[=seconds]' the table is redrawn until interrupted.
+     */
+    private static void stats(String... args)
+            throws Exception
+    {
+        long interval = 0;
+        Set<String> ids = new LinkedHashSet<>();
+        for(String arg : args)
+        {
+            if(arg.equals("--watch"))
+            {
+                interval = 2000;
+            } else if(arg.startsWith("--watch="))
+            {
+                interval = getNumber("--watch", 1, 2, arg) * 1000L;
+            } else
+            {
+                ids.add(arg);
+            }
+        }
+        while(true)
+        {
+            List<ServerInstance> instances = new ArrayList<>();
+            for(ServerInstance inst : REGISTRY.read())
+            {
+                if(ids.isEmpty() || ids.contains(inst.id))
+                {
+                    instances.add(inst);
+                }
+            }
+            if(interval > 0)
+            {
+                // Clears the terminal and moves the cursor home.
+                System.out.print("\033[H\033[2J");
+                info(String.format("Every %ds, Ctrl+C to quit.", interval / 1000));
+            }
+            printStats(instances);
+            if(interval <= 0)
+            {
+                break;
+            }
+            Thread.sleep(interval);
+        }
+    }
+
+    private static void printStats(List<ServerInstance> instances)
+    {
+        if(instances.isEmpty())
+        {
+            info("No instance is running.");
+            return;
+        }
+        String doubleLine = "==========================================================================================================";
+        String singleLine = "----------------------------------------------------------------------------------------------------------";
+        String format = "%-12s%-9s%-10s%-10s%-10s%-8s%-8s%-16s%-16s%s";
+        info(doubleLine);
+        info(String.format(format, "ID", "PID", "UPTIME", "RPS", "P99(ms)", "ACTIVE", "CONNS", "THREADS", "HEAP(MB)", "GC"));
+        info(singleLine);
+        Map<Integer, Properties> published = new HashMap<>();
+        for(ServerInstance inst : instances)
+        {
+            Properties stats = published.computeIfAbsent(inst.pid, StatsPublisher::read);
+            String app = stats == null ? null : StatsPublisher.findApp(stats, inst);
+            if(app == null)
+            {
+                info(String.format(format, inst.id, inst.pid, "-", "-", "-", "-", "-", "-", "-", "no stats"));
+                continue;
+            }
+            long age = System.currentTimeMillis() - Long.parseLong(stats.getProperty("time"));
+            String threads = stats.getProperty("threads.busy") + '/' + stats.getProperty("threads.max");
+            String queue = stats.getProperty("threads.queue");
+            if(!"0".equals(queue))
+            {
+                threads += " q" + queue;
+            }
+            String heap = String.format("%d/%d", Long.parseLong(stats.getProperty("heap.used")) >> 20, Long.parseLong(stats.getProperty("heap.max")) >> 20);
+            String gc = stats.getProperty("gc.percent") + '%';
+            if(age > 5 * STATS_INTERVAL)
+            {
+                gc += String.format(" (stale %ds)", age / 1000);
+            }
+            info(String.format(format, inst.id, inst.pid, formatDuration(Long.parseLong(stats.getProperty("uptime"))), stats.getProperty(app + "rps"),
+                    stats.getProperty(app + "p99"), stats.getProperty(app + "active"), stats.getProperty(app + "connections"), threads, heap, gc));
+        }
+        info(doubleLine);
+    }
+
+    private static String formatDuration(long millis)
+    {
+        long seconds = millis / 1000;
+        if(seconds < 3600)
+        {
+            return String.format("%dm%02ds", seconds / 60, seconds % 60);
+        }
+        if(seconds < 86400)
+        {
+            return String.format("%dh%02dm", seconds / 3600, seconds % 3600 / 60);
+        }
+        return String.format("%dd%02dh", seconds / 86400, seconds % 86400 / 3600);
+    }
+
     private static void help(String msg)
     {
         error(msg);
@@ -285,15 +671,45 @@ public class Main
         info("                [port=?]            Port number(1025,65535]. Default: 8080.");
         info("                [ctx=?]             Context path. Default: ROOT.");
         info("                [id=?]              Unique identification for the instance. Default: None.");
+        info("                [sock=?]            Unix domain socket path(Java 16+). Without 'port=' the context listens on the socket only.");
+        info("                                    Repeat port/ctx/id/sock to host more contexts in the same JVM.");
+        info("                [apps=?]            File listing one 'port=? ctx=? id=? sock=?' group per line.");
+        info("                [boot=?]            scan|index. 'index' uses the build-time index instead of scanning. Default: scan.");
+        info("                [exec=?]            pool|virtual. 'virtual' handles requests on virtual threads(Java 21+). Default: pool.");
+        info("                [threads=?]         Thread pool size as 'min-max'. Default: 8-200.");
+        info("                [queue=?]           Job queue capacity of the thread pool. Default: unbounded.");
+        info("                [net=?]             default|auto. 'auto' sizes the options below from the available cores. Default: default.");
+        info("                [acceptors=?]       Acceptor threads per connector. Default: chosen by Jetty.");
+        info("                [selectors=?]       Selector threads per connector. Default: chosen by Jetty.");
+        info("                [backlog=?]         Accept queue size. Default: OS default.");
+        info("                [idle=?]            Connection idle timeout(ms). Default: 30000.");
+        info("                [reuseport=?]       on|off. Bind with SO_REUSEPORT(Linux, Java 9+). Default: off.");
+        info("                [groups=?]          Connectors per port, each with its own selectors. Requires reuseport=on. Default: 1.");
+        info("                [h2c=?]             on|off. Serve cleartext HTTP/2(upgrade and prior knowledge) next to HTTP/1.1. Default: off.");
+        info("                [h2streams=?]       Max concurrent HTTP/2 streams per connection. Default: 128.");
+        info("                [h2window=?]        Initial HTTP/2 stream receive window(bytes). Default: 524288.");
+        info("                [h2sessionwindow=?] Initial HTTP/2 session receive window(bytes). Default: 1048576.");
+        info("                [gzip=?]            on|off. Gzip dynamic responses('.br'/'.gz' copies of static resources are always used). Default: on.");
+        info("                [gzipmin=?]         Smallest response(bytes) worth compressing. Default: 256.");
+        info("                [gziplevel=?]       Deflate level [1,9]. Default: 6.");
+        info("                [deflaters=?]       Deflaters kept in the pool for reuse. Default: chosen by Jetty.");
+        info("                [drain=?]           Time(ms) requests in flight get to complete when the instance stops. Default: 10000.");
         info(singleLine);
-        info("   stop                             Stop instance(s) associated with the specified ids.");
+        info("   stop                             Stop instance(s) associated with the specified ids(other contexts in the JVM keep running).");
         info("                [id1] [id2]...      Default: all.");
         info(singleLine);
-        info("   kill                             Stop instance(s) associated with the specified ids.");
+        info("   kill                             Stop the whole process(es) with the specified pids.");
         info("                [pid1] [pid2]...    Default: all.");
         info(singleLine);
+        info("   restart                          Replace the process(es) hosting the ids without downtime(Linux, reuseport=on for TCP ports).");
+        info("                <id1> [id2]...      ");
+        info(singleLine);
         info("   list                             List all running instances.");
         info(singleLine);
+        info("   stats                            Show rate, p99 latency, connections, thread pool and heap/GC use of the instances.");
+        info("                [id1] [id2]...      Default: all.");
+        info("                [--watch[=?]]       Refresh every ? seconds until interrupted. Default: 2.");
+        info(singleLine);
         info("   help|h                           Display help info.");
         info(doubleLine);
     }
@@ -313,31 +729,330 @@ public class Main
         }
     }
 
-    private static void initServer(int port, String contextPah)
+    /**
+     * Hosts all contexts in one server. Connectors are created per port and share the server's thread pool, one scheduler and one buffer pool;
+     * each context is bound to the connector of its port.
+     */
+    private static void initServer(ThreadPool threadPool, ConnectorConfig connectorConfig, GzipConfig gzipConfig, List<AppConfig> apps, String boot)
             throws Exception
     {
-        WebAppContext webApp = createWebApp(contextPah);
-        NetworkTrafficServerConnector connector = new NetworkTrafficServerConnector(JETTY_SERVER);
-        connector.setPort(port);
-        connector.setSoLingerTime(-1);
-        JETTY_SERVER.setStopAtShutdown(true);
-        JETTY_SERVER.addConnector(connector);
-        JETTY_SERVER.setHandler(webApp);
+        JETTY_SERVER = new Server(threadPool);
+        File webDir = prepareWebDir();
+        info("******** Web Directory  : " + webDir);
+        Scheduler scheduler = new ScheduledExecutorScheduler("Scheduler-" + CUR_PID, false);
+        ByteBufferPool bufferPool = new ArrayByteBufferPool();
+        Set<Integer> ports = new HashSet<>();
+        Set<String> sockets = new HashSet<>();
+        for(AppConfig app : apps)
+        {
+            if(app.port > 0 && ports.add(app.port))
+            {
+                // With SO_REUSEPORT every group listens on its own socket and the kernel spreads the accepts between them.
+                for(int i = 0; i < connectorConfig.groups; i++)
+                {
+                    TunedConnector connector = new TunedConnector(JETTY_SERVER, scheduler, bufferPool, connectorConfig, createConnectionFactories(connectorConfig));
+                    connector.setName("port-" + app.port);
+                    connector.setPort(app.port);
+                    JETTY_SERVER.addConnector(connector);
+                }
+            }
+            if(app.sock != null && sockets.add(app.sock))
+            {
+                UnixSocketConnector connector = new UnixSocketConnector(JETTY_SERVER, scheduler, bufferPool, connectorConfig, new File(app.sock),
+                        createConnectionFactories(connectorConfig));
+                connector.setName("sock-" + app.sock);
+                JETTY_SERVER.addConnector(connector);
+            }
+            app.webApp = createWebApp(app.ctx, boot, webDir, APPS.size());
+            app.stats = new StatisticsHandler();
+            app.latency = new LatencyRecorder(gzipConfig.wrap(app.webApp));
+            app.stats.setHandler(app.latency);
+            List<String> virtualHosts = new ArrayList<>();
+            for(String connectorName : app.getConnectorNames())
+            {
+                virtualHosts.add('@' + connectorName);
+            }
+            app.webApp.setVirtualHosts(virtualHosts.toArray(new String[virtualHosts.size()]));
+            CONTEXTS.addHandler(app.stats);
+            APPS.add(app);
+        }
+        // The launcher's own shutdown hook drains the contexts, Jetty's would stop them right away.
+        JETTY_SERVER.setStopAtShutdown(false);
+        JETTY_SERVER.setHandler(new FirstRequestReporter(CONTEXTS));
+    }
+
+    /**
+     * HTTP/1.1 always comes first, so plain clients and 'Upgrade: h2c' requests start there; with h2c enabled the same port also accepts the
+     * HTTP/2 preface directly(prior knowledge).
+     */
+    private static ConnectionFactory[] createConnectionFactories(ConnectorConfig config)
+    {
+        HttpConfiguration httpConfig = new HttpConfiguration();
+        HttpConnectionFactory http1 = new HttpConnectionFactory(httpConfig);
+        if(!config.h2c)
+        {
+            return new ConnectionFactory[]{http1};
+        }
+        HTTP2CServerConnectionFactory h2c = new HTTP2CServerConnectionFactory(httpConfig);
+        h2c.setMaxConcurrentStreams(config.h2Streams);
+        h2c.setInitialStreamRecvWindow(config.h2StreamWindow);
+        h2c.setInitialSessionRecvWindow(config.h2SessionWindow);
+        return new ConnectionFactory[]{http1, h2c};
     }
 
-    private static WebAppContext createWebApp(String contextPah)
+    private static WebAppContext createWebApp(String contextPah, String boot, File webDir, int index)
             throws Exception
     {
         WebAppContext webApp = new WebAppContext();
         webApp.setInitParameter("org.eclipse.jetty.servlet.Default.dirAllowed", "false");
+        // The '.br'/'.gz' copies written by the build are sent in place of static resources as 'Accept-Encoding' allows.
+        webApp.setInitParameter("org.eclipse.jetty.servlet.Default.precompressed", "br=.br,gzip=.gz");
         webApp.setContextPath(contextPah);
-        webApp.setCopyWebDir(true);
+        webApp.setCopyWebDir(false);
+        webApp.setCopyWebInf(false);
+        webApp.setExtractWAR(false);
         webApp.setPersistTempDirectory(false);
-        webApp.setTempDirectory(WORK_DIR);
-        webApp.setWar(WAR_FILENAME);
+        webApp.setTempDirectory(new File(WORK_DIR, "instance-" + CUR_PID + '-' + index));
+        webApp.setWar(webDir.getPath());
+        if(BOOT_INDEX.equals(boot))
+        {
+            applyIndex(webApp, webDir);
+        }
         return webApp;
     }
 
+    /**
+     * Runs only the Jetty configurations listed in the build-time index and lets the webapp register its components from the index.
+     */
+    private static void applyIndex(WebAppContext webApp, File webDir)
+            throws IOException
+    {
+        File indexFile = new File(webDir, INDEX_FILENAME);
+        if(!indexFile.isFile())
+        {
+            error(String.format("Index not found -> %s! Falling back to scanning.", indexFile));
+            return;
+        }
+        Properties index = new Properties();
+        try(InputStream in = new FileInputStream(indexFile))
+        {
+            index.load(in);
+        }
+        String configurations = index.getProperty("configurations", "").trim();
+        if(!configurations.isEmpty())
+        {
+            webApp.setConfigurationClasses(configurations.split("\\s*,\\s*"));
+        }
+        webApp.setInitParameter("spring.profiles.active", INDEX_PROFILE);
+    }
+
+    /**
+     * Creates the request execution model: a bounded platform thread pool, or virtual threads for blocking request handling
+     * with a platform pool kept for selectors, acceptors and other container tasks.
+     */
+    private static ThreadPool createThreadPool(String exec, int[] threads, int queueSize)
+    {
+        BlockingQueue<Runnable> queue = null;
+        if(queueSize > 0)
+        {
+            queue = new BlockingArrayQueue<>(Math.min(queueSize, threads[1]), threads[1], queueSize);
+        }
+        QueuedThreadPool pool = new QueuedThreadPool(threads[1], threads[0], 60000, queue);
+        pool.setName("Pool-" + CUR_PID);
+        if(EXEC_VIRTUAL.equals(exec))
+        {
+            return new VirtualThreadPool(pool);
+        }
+        return pool;
+    }
+
+    private static String describeExecution(String exec, int[] threads, int queueSize)
+    {
+        if(EXEC_VIRTUAL.equals(exec))
+        {
+            return String.format("virtual(core=%d-%d)", threads[0], threads[1]);
+        }
+        return String.format("pool(%d-%d,queue=%s)", threads[0], threads[1], queueSize > 0 ? queueSize : "unbounded");
+    }
+
+    private static ConnectorConfig getConnectorConfig(String... args)
+            throws Exception
+    {
+        ConnectorConfig config = new ConnectorConfig();
+        String net = getOption("net", args);
+        if("auto".equals(net))
+        {
+            int cores = Runtime.getRuntime().availableProcessors();
+            config.reusePort = TunedConnector.isReusePortSupported();
+            config.groups = config.reusePort ? Math.max(1, cores / 4) : 1;
+            config.acceptors = 1;
+            config.selectors = Math.max(1, cores / 2 / config.groups);
+            config.backlog = 1024;
+        } else if(net != null && !"default".equals(net))
+        {
+            throw new IllegalArgumentException(String.format("Invalid network profile -> %s!", net));
+        }
+        config.acceptors = getNumber("acceptors", 0, config.acceptors, args);
+        config.selectors = getNumber("selectors", 1, config.selectors, args);
+        config.backlog = getNumber("backlog", 0, config.backlog, args);
+        config.idleTimeout = getNumber("idle", 1, config.idleTimeout, args);
+        config.groups = getNumber("groups", 1, config.groups, args);
+        String reusePort = getOption("reuseport", args);
+        if(reusePort != null)
+        {
+            if("on".equals(reusePort) || "off".equals(reusePort))
+            {
+                config.reusePort = "on".equals(reusePort);
+            } else
+            {
+                throw new IllegalArgumentException(String.format("Invalid reuseport -> %s!", reusePort));
+            }
+        }
+        if(config.reusePort && !TunedConnector.isReusePortSupported())
+        {
+            throw new IllegalArgumentException("SO_REUSEPORT is not supported by this platform or JVM!");
+        }
+        if(config.groups > 1 && !config.reusePort)
+        {
+            throw new IllegalArgumentException("Connector groups require reuseport=on!");
+        }
+        String h2c = getOption("h2c", args);
+        if(h2c != null)
+        {
+            if("on".equals(h2c) || "off".equals(h2c))
+            {
+                config.h2c = "on".equals(h2c);
+            } else
+            {
+                throw new IllegalArgumentException(String.format("Invalid h2c -> %s!", h2c));
+            }
+        }
+        config.h2Streams = getNumber("h2streams", 1, config.h2Streams, args);
+        // 65535 is the initial window of the HTTP/2 specification, smaller windows would only slow the peers down.
+        config.h2StreamWindow = getNumber("h2window", 65535, config.h2StreamWindow, args);
+        config.h2SessionWindow = getNumber("h2sessionwindow", 65535, config.h2SessionWindow, args);
+        return config;
+    }
+
+    private static GzipConfig getGzipConfig(String... args)
+    {
+        GzipConfig config = new GzipConfig();
+        String gzip = getOption("gzip", args);
+        if(gzip != null)
+        {
+            if("on".equals(gzip) || "off".equals(gzip))
+            {
+                config.enabled = "on".equals(gzip);
+            } else
+            {
+                throw new IllegalArgumentException(String.format("Invalid gzip -> %s!", gzip));
+            }
+        }
+        config.minSize = getNumber("gzipmin", 0, config.minSize, args);
+        config.level = getNumber("gziplevel", 1, config.level, args);
+        if(config.level > 9)
+        {
+            throw new IllegalArgumentException(String.format("Bad gziplevel -> %d", config.level));
+        }
+        config.deflaters = getNumber("deflaters", 1, config.deflaters, args);
+        return config;
+    }
+
+    private static String getOption(String key, String... args)
+    {
+        String prefix = key + '=';
+        for(String arg : args)
+        {
+            if(arg.startsWith(prefix))
+            {
+                return arg.substring(prefix.length());
+            }
+        }
+        return null;
+    }
+
+    private static int getNumber(String key, int min, int defaultValue, String... args)
+    {
+        String value = getOption(key, args);
+        if(value == null)
+        {
+            return defaultValue;
+        }
+        try
+        {
+            int number = Integer.parseInt(value);
+            if(number >= min)
+            {
+                return number;
+            }
+        } catch(NumberFormatException ignored)
+        {
+        }
+        throw new IllegalArgumentException(String.format("Bad %s -> %s", key, value));
+    }
+
+    /**
+     * Splits the options into context groups. A group ends when one of its options('port=', 'ctx=', 'id=') appears again;
+     * 'apps=' adds one group per line of the given file.
+     */
+    private static List<AppConfig> getApps(String... args)
+            throws Exception
+    {
+        List<List<String>> groups = new ArrayList<>();
+        List<String> group = new ArrayList<>();
+        Set<String> keys = new HashSet<>();
+        for(String arg : args)
+        {
+            int index = arg.indexOf('=');
+            String key = index > 0 ? arg.substring(0, index) : arg;
+            if(key.equals("port") || key.equals("ctx") || key.equals("id") || key.equals("sock"))
+            {
+                if(!keys.add(key))
+                {
+                    groups.add(group);
+                    group = new ArrayList<>();
+                    keys.clear();
+                    keys.add(key);
+                }
+                group.add(arg);
+            } else if(key.equals("apps"))
+            {
+                File file = new File(arg.substring(index + 1));
+                for(String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8))
+                {
+                    line = line.trim();
+                    if(!line.isEmpty() && !line.startsWith("#"))
+                    {
+                        groups.add(Arrays.asList(line.split("\\s+")));
+                    }
+                }
+            }
+        }
+        if(!group.isEmpty() || groups.isEmpty())
+        {
+            groups.add(group);
+        }
+        List<AppConfig> result = new ArrayList<>(groups.size());
+        Set<String> bindings = new HashSet<>();
+        for(List<String> options : groups)
+        {
+            String[] array = options.toArray(new String[options.size()]);
+            String sock = getSocketPath(array);
+            // A socket without a port replaces the TCP listener, otherwise it is added next to it.
+            int port = sock != null && getOption("port", array) == null ? 0 : getPort(array);
+            AppConfig app = new AppConfig(port, sock, getContextPath(array), getInstanceId(array));
+            for(String connectorName : app.getConnectorNames())
+            {
+                if(!bindings.add(connectorName + app.ctx))
+                {
+                    throw new IllegalArgumentException(String.format("Duplicate context -> %s%s", connectorName, app.ctx));
+                }
+            }
+            result.add(app);
+        }
+        return result;
+    }
+
     private static int getPort(String... args)
             throws Exception
     {
@@ -359,6 +1074,27 @@ public class Main
         return 8080;
     }
 
+    private static String getSocketPath(String... args)
+            throws Exception
+    {
+        String sock = getOption("sock", args);
+        if(sock == null)
+        {
+            return null;
+        }
+        if(!UnixSocketConnector.isSupported())
+        {
+            throw new IllegalArgumentException("Unix domain sockets require Java 16+!");
+        }
+        String path = new File(sock).getAbsolutePath();
+        // sun_path holds 108 bytes including the terminating zero on Linux.
+        if(sock.isEmpty() || path.getBytes(StandardCharsets.UTF_8).length > 107)
+        {
+            throw new IllegalArgumentException(String.format("Invalid socket path -> %s!", sock));
+        }
+        return path;
+    }
+
     private static String getContextPath(String... args)
             throws Exception
     {
@@ -400,7 +1136,92 @@ public class Main
         return DEFAULT_ID;
     }
 
-    private static String[] getStoppingIds(String... args)
+    private static String getExecMode(String... args)
+            throws Exception
+    {
+        for(String arg : args)
+        {
+            if(arg.startsWith("exec="))
+            {
+                String exec = arg.substring(arg.indexOf('=') + 1);
+                if(EXEC_POOL.equals(exec) || EXEC_VIRTUAL.equals(exec))
+                {
+                    return exec;
+                } else
+                {
+                    throw new IllegalArgumentException(String.format("Invalid execution mode -> %s!", exec));
+                }
+            }
+        }
+        return EXEC_POOL;
+    }
+
+    private static int[] getThreads(String... args)
+            throws Exception
+    {
+        for(String arg : args)
+        {
+            if(arg.startsWith("threads="))
+            {
+                String threads = arg.substring(arg.indexOf('=') + 1);
+                Matcher matcher = REG_THREADS.matcher(threads);
+                if(matcher.matches())
+                {
+                    int min = Integer.parseInt(matcher.group(1));
+                    int max = Integer.parseInt(matcher.group(2));
+                    if(min > 0 && min <= max)
+                    {
+                        return new int[]{min, max};
+                    }
+                }
+                throw new IllegalArgumentException(String.format("Invalid thread pool size -> %s!", threads));
+            }
+        }
+        return new int[]{8, 200};
+    }
+
+    private static int getQueueSize(String... args)
+            throws Exception
+    {
+        for(String arg : args)
+        {
+            if(arg.startsWith("queue="))
+            {
+                String queueString = arg.substring(arg.indexOf('=') + 1);
+                int queue = Integer.parseInt(queueString);
+                if(queue > 0)
+                {
+                    return queue;
+                } else
+                {
+                    throw new IllegalArgumentException(String.format("Bad queue capacity -> %s", queueString));
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static String getBootMode(String... args)
+            throws Exception
+    {
+        for(String arg : args)
+        {
+            if(arg.startsWith("boot="))
+            {
+                String boot = arg.substring(arg.indexOf('=') + 1);
+                if(BOOT_SCAN.equals(boot) || BOOT_INDEX.equals(boot))
+                {
+                    return boot;
+                } else
+                {
+                    throw new IllegalArgumentException(String.format("Invalid boot mode -> %s!", boot));
+                }
+            }
+        }
+        return BOOT_SCAN;
+    }
+
+    private static String[] getStoppingIds(String... args)
     {
         int argSize = args.length;
         String[] result = new String[argSize];
@@ -440,142 +1261,231 @@ public class Main
         return result;
     }
 
-    private static void saveInstance(int port, String id, String ctx)
+    private static void saveInstance(ServerInstance inst)
             throws Exception
     {
-        if(PID_CHANNEL != null && PID_CHANNEL.isOpen())
-        {
-            try
-            {
-                Map<Integer, ServerInstance> map = readPid();
-                map.put(CUR_PID, new ServerInstance(port, id, ctx));
-                writeMap(map);
-            } catch(Exception e)
-            {
-                e.printStackTrace();
-            }
-        } else
-        {
-            throw new IllegalStateException("Unable to access pid file!");
-        }
+        REGISTRY.register(inst);
     }
 
     private static void removeCurrent()
             throws Exception
     {
-        removeInstanceByPid(CUR_PID);
+        REGISTRY.remove(inst->inst.pid == CUR_PID);
     }
 
-    private static void removeInstanceByPid(int pid)
+    private static void removeInstanceById(String id)
             throws Exception
     {
-        lock();
-        if(pid > 0)
+        if(id != null && !id.isEmpty())
         {
-            Map<Integer, ServerInstance> map = readPid();
-            map.remove(pid);
-            writeMap(map);
+            REGISTRY.remove(inst->id.equals(inst.id));
         }
     }
 
-    private static void removeInstanceById(String id)
-            throws Exception
+    /**
+     * Polls the registry for stop requests('stop <id>' from another process) on the contexts hosted by this process.
+     */
+    private static void watchStopRequests()
     {
-        if(id != null && !id.isEmpty())
-        {
-            Map<Integer, ServerInstance> map = readPid();
-            for(Map.Entry<Integer, ServerInstance> entry : map.entrySet())
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable->{
+            Thread thread = new Thread(runnable, "StopWatcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(()->{
+            try
             {
-                Integer pid = entry.getKey();
-                ServerInstance instance = entry.getValue();
-                if(id.equals(instance.id))
+                List<ServerInstance> requested = new ArrayList<>();
+                for(ServerInstance inst : REGISTRY.read())
+                {
+                    if(inst.pid == CUR_PID && inst.startTime == CUR_START_TIME && inst.stopRequested)
+                    {
+                        requested.add(inst);
+                    }
+                }
+                if(!requested.isEmpty())
                 {
-                    map.remove(pid);
+                    stopInstances(requested);
                 }
+            } catch(Exception e)
+            {
+                e.printStackTrace();
             }
-            writeMap(map);
-        }
+        }, STOP_POLL_INTERVAL, STOP_POLL_INTERVAL, TimeUnit.MILLISECONDS);
     }
 
-    private static void writeMap(Map<Integer, ServerInstance> map)
+    /**
+     * Stops the hosted contexts of the records together, so they drain in parallel. Records without a hosted context are removed.
+     */
+    private static synchronized void stopInstances(List<ServerInstance> instances)
             throws Exception
     {
-        Set<String> set = new HashSet<>();
-        for(Map.Entry<Integer, ServerInstance> entry : map.entrySet())
+        List<AppConfig> targets = new ArrayList<>();
+        for(ServerInstance inst : instances)
         {
-            Integer pid = entry.getKey();
-            ServerInstance instance = entry.getValue();
-            set.add(String.format("%d,%d,%s,%s", pid, instance.port, instance.id, instance.ctx));
+            boolean hosted = false;
+            for(AppConfig app : APPS)
+            {
+                if(app.matches(inst))
+                {
+                    targets.add(app);
+                    hosted = true;
+                }
+            }
+            if(!hosted)
+            {
+                REGISTRY.remove(inst::equals);
+            }
         }
-        String[] newArray = new String[map.size()];
-        set.toArray(newArray);
-        String newData = String.join("|", (CharSequence[])newArray);
-        byte[] bytes = newData.getBytes();
-        ByteBuffer buffer = ByteBuffer.wrap(bytes);
-        PID_CHANNEL.truncate(0);
-        PID_CHANNEL.write(buffer);
+        stopApps(targets);
     }
 
-    private static Map<Integer, ServerInstance> readPid()
-            throws IOException
+    /**
+     * Drains and stops hosted contexts. Connectors no other context uses stop accepting, new requests to the contexts get 503,
+     * and the requests in flight get up to 'drain' ms to complete. The server stops after the last context.
+     */
+    private static synchronized void stopApps(List<AppConfig> apps)
+            throws Exception
     {
-        int fileSize = (int)PID_CHANNEL.size();
-        ByteBuffer buffer = ByteBuffer.allocate(fileSize);
-        PID_CHANNEL.position(0);
-        buffer.flip();
-        String data = new String(buffer.array());
-        String[] dataArray = data.split("\\|");
-        Map<Integer, ServerInstance> result = new HashMap<>(dataArray.length);
-        for(String item : dataArray)
+        List<AppConfig> targets = new ArrayList<>(apps);
+        targets.retainAll(APPS);
+        if(targets.isEmpty())
+        {
+            return;
+        }
+        APPS.removeAll(targets);
+        Set<String> unused = new HashSet<>();
+        targets.forEach(app->unused.addAll(app.getConnectorNames()));
+        APPS.forEach(app->unused.removeAll(app.getConnectorNames()));
+        List<Connector> connectors = new ArrayList<>();
+        for(Connector connector : JETTY_SERVER.getConnectors())
         {
-            String[] array = item.split(",");
-            if(array.length == 4)
+            if(unused.contains(connector.getName()))
             {
-                Integer pid = Integer.valueOf(array[0]);
-                Integer port = Integer.valueOf(array[1]);
-                String id = array[2];
-                String ctx = array[3];
-                result.put(pid, new ServerInstance(port, id, ctx));
+                connectors.add(connector);
             }
         }
-        return result;
-    }
-
-    private static void lock()
-            throws IOException
-    {
-        RandomAccessFile pidFile = new RandomAccessFile(PID_FILENAME, "rw");
-        PID_CHANNEL = pidFile.getChannel();
-        PID_LOCK = PID_CHANNEL.lock();
+        long begin = System.currentTimeMillis();
+        List<Future<Void>> futures = new ArrayList<>();
+        connectors.forEach(connector->futures.add(connector.shutdown()));
+        int[] active = new int[targets.size()];
+        for(int i = 0; i < targets.size(); i++)
+        {
+            AppConfig app = targets.get(i);
+            info(String.format("Draining context '%s' on %s...", app.ctx, app.getConnectorNames()));
+            active[i] = app.stats.getRequestsActive();
+            futures.add(app.stats.shutdown());
+        }
+        awaitAll(futures, begin + DRAIN_TIMEOUT);
+        int elapsed = (int)(System.currentTimeMillis() - begin);
+        for(int i = 0; i < targets.size(); i++)
+        {
+            AppConfig app = targets.get(i);
+            int remaining = app.stats.getRequestsActive();
+            int drained = Math.max(0, active[i] - remaining);
+            if(remaining > 0)
+            {
+                error(String.format("Context '%s' drained %d request(s) in %dms, %d cut off.", app.ctx, drained, elapsed, remaining));
+            } else
+            {
+                info(String.format("Context '%s' drained %d request(s) in %dms.", app.ctx, drained, elapsed));
+            }
+            app.webApp.stop();
+            CONTEXTS.removeHandler(app.stats);
+            REGISTRY.retire(inst->inst.pid == CUR_PID && inst.startTime == CUR_START_TIME && app.matches(inst), drained, elapsed);
+        }
+        for(Connector connector : connectors)
+        {
+            connector.stop();
+            JETTY_SERVER.removeConnector(connector);
+        }
+        if(APPS.isEmpty())
+        {
+            StatsPublisher.delete(CUR_PID);
+            stopJetty();
+        }
     }
 
-    private static void unlock()
+    private static void awaitAll(List<Future<Void>> futures, long deadline)
+            throws Exception
     {
-        if(PID_LOCK != null)
+        for(Future<Void> future : futures)
         {
+            long timeout = deadline - System.currentTimeMillis();
+            if(timeout <= 0)
+            {
+                return;
+            }
             try
             {
-                PID_LOCK.release();
-            } catch(IOException e)
+                future.get(timeout, TimeUnit.MILLISECONDS);
+            } catch(TimeoutException e)
             {
-                e.printStackTrace();
+                return;
             }
         }
-        if(PID_CHANNEL != null)
+    }
+
+    /**
+     * Waits until the targets leave the registry. Processes that do not react in time(e.g. older launchers) and host nothing else are terminated.
+     */
+    private static void awaitStopped(List<ServerInstance> targets)
+            throws Exception
+    {
+        int drainTimeout = 0;
+        for(ServerInstance inst : targets)
+        {
+            drainTimeout = Math.max(drainTimeout, inst.drainTimeout);
+        }
+        long deadline = System.currentTimeMillis() + drainTimeout + STOP_TIMEOUT;
+        List<ServerInstance> remaining = new ArrayList<>(targets);
+        while(!remaining.isEmpty() && System.currentTimeMillis() < deadline)
         {
-            try
+            Thread.sleep(STOP_POLL_INTERVAL);
+            List<ServerInstance> instances = REGISTRY.read();
+            for(Iterator<ServerInstance> iterator = remaining.iterator(); iterator.hasNext(); )
             {
-                PID_CHANNEL.close();
-            } catch(IOException e)
+                ServerInstance inst = iterator.next();
+                if(!instances.contains(inst) || getProcessStartTime(inst.pid) < 0)
+                {
+                    iterator.remove();
+                    int[] result = REGISTRY.getDrainResult(inst);
+                    if(result != null)
+                    {
+                        info(String.format("Instance '%s'(pid %d) stopped, drained %d request(s) in %dms.", inst.id, inst.pid, result[0], result[1]));
+                    } else
+                    {
+                        info(String.format("Instance '%s'(pid %d) stopped.", inst.id, inst.pid));
+                    }
+                }
+            }
+        }
+        if(!remaining.isEmpty())
+        {
+            List<ServerInstance> instances = REGISTRY.read();
+            Set<Integer> pids = new LinkedHashSet<>();
+            for(ServerInstance inst : remaining)
             {
-                e.printStackTrace();
+                boolean hostsOthers = false;
+                for(ServerInstance other : instances)
+                {
+                    hostsOthers |= other.pid == inst.pid && !remaining.contains(other);
+                }
+                if(hostsOthers)
+                {
+                    error(String.format("Instance '%s'(pid %d) did not stop in time!", inst.id, inst.pid));
+                } else
+                {
+                    pids.add(inst.pid);
+                }
             }
+            pids.forEach(pid->sign(SIGN_TERM, pid));
         }
     }
 
     private static boolean isRunning()
     {
-        return JETTY_SERVER.isRunning() || JETTY_SERVER.isStarted() || JETTY_SERVER.isStarting();
+        return JETTY_SERVER != null && (JETTY_SERVER.isRunning() || JETTY_SERVER.isStarted() || JETTY_SERVER.isStarting());
     }
 
     private static void stopJetty()
@@ -593,57 +1503,123 @@ public class Main
     private static void clean()
             throws Exception
     {
-        Map<Integer, ServerInstance> map = readPid();
-        Iterator<Integer> iterator = map.keySet().iterator();
-        while(iterator.hasNext())
+        List<ServerInstance> deadInstances = getDeadInstances(REGISTRY.read());
+        if(!deadInstances.isEmpty())
         {
-            Integer pid = iterator.next();
-            if(pid != null)
+            Set<Integer> pids = new LinkedHashSet<>();
+            deadInstances.forEach(inst->pids.add(inst.pid));
+            for(Integer pid : pids)
             {
-                if(!isProcessExist(pid))
-                {
-                    info(String.format("Process '%d' has been shutdown. Removing...", pid));
-                    iterator.remove();
-                    removeInstanceByPid(pid);
-                }
+                info(String.format("Process '%d' has been shutdown. Removing...", pid));
             }
-        }
-        if(map.isEmpty())
-        {
-            File file = new File(PID_FILENAME);
-            file.deleteOnExit();
+            REGISTRY.remove(deadInstances::contains);
+            pids.forEach(StatsPublisher::delete);
         }
     }
 
-    public static boolean isProcessExist(int pid)
+    /**
+     * Checks all registered processes in one pass without forking on Linux.
+     * A process whose start time differs from the registered one is a reused pid and counts as dead.
+     */
+    private static List<ServerInstance> getDeadInstances(List<ServerInstance> instances)
     {
-        try
+        List<ServerInstance> result = new ArrayList<>();
+        Set<Integer> windowsPids = isWindows() && !instances.isEmpty() ? getWindowsPids() : null;
+        Map<Integer, Long> startTimes = new HashMap<>();
+        for(ServerInstance inst : instances)
         {
-            Process process;
-            if(isLinux())
-            {
-                process = Runtime.getRuntime().exec(new String[]{"/bin/sh", "-c", "ps -e|grep " + pid});
-            } else if(isWindows())
+            boolean alive;
+            if(windowsPids != null)
             {
-                process = Runtime.getRuntime().exec("tasklist");
+                alive = windowsPids.contains(inst.pid);
             } else
             {
-                throw new IllegalStateException("Unsupported OS!");
+                alive = isInstanceOf(inst, inst.pid, startTimes.computeIfAbsent(inst.pid, Main::getProcessStartTime));
+            }
+            if(!alive)
+            {
+                result.add(inst);
             }
-            BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-            String string = bufferedReader.readLine();
-            while(string != null)
+        }
+        return result;
+    }
+
+    public static boolean isProcessExist(int pid)
+    {
+        if(isLinux())
+        {
+            return getProcessStartTime(pid) >= 0;
+        } else if(isWindows())
+        {
+            return getWindowsPids().contains(pid);
+        } else
+        {
+            throw new IllegalStateException("Unsupported OS!");
+        }
+    }
+
+    /**
+     * Returns the start time of the process(clock ticks since boot, from /proc/[pid]/stat), -1 if it does not exist, or 0 if unknown.
+     */
+    private static long getProcessStartTime(int pid)
+    {
+        if(!isLinux())
+        {
+            return 0;
+        }
+        try
+        {
+            byte[] bytes = Files.readAllBytes(new File("/proc/" + pid + "/stat").toPath());
+            String stat = new String(bytes);
+            // The command name may contain spaces, so fields are counted from its closing parenthesis.
+            String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+            return Long.parseLong(fields[19]);
+        } catch(NoSuchFileException e)
+        {
+            return -1;
+        } catch(IOException | RuntimeException e)
+        {
+            return 0;
+        }
+    }
+
+    /**
+     * Whether the record belongs to the process 'pid' started at 'startTime'(see {@link #getProcessStartTime(int)}), and not to an earlier
+     * process which had the same pid.
+     */
+    private static boolean isInstanceOf(ServerInstance inst, int pid, long startTime)
+    {
+        return inst.pid == pid && startTime >= 0 && (inst.startTime <= 0 || inst.startTime == startTime);
+    }
+
+    private static Set<Integer> getWindowsPids()
+    {
+        try
+        {
+            Process process = Runtime.getRuntime().exec("tasklist /FO CSV /NH");
+            Set<Integer> result = new HashSet<>();
+            try(BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(process.getInputStream())))
             {
-                if(string.contains("java") && string.contains(String.valueOf(pid)))
+                String string = bufferedReader.readLine();
+                while(string != null)
                 {
-                    return true;
+                    String[] columns = string.split("\",\"");
+                    if(columns.length > 1)
+                    {
+                        try
+                        {
+                            result.add(Integer.valueOf(columns[1]));
+                        } catch(NumberFormatException ignored)
+                        {
+                        }
+                    }
+                    string = bufferedReader.readLine();
                 }
-                string = bufferedReader.readLine();
             }
-            return false;
+            return result;
         } catch(IOException e)
         {
-            throw new IllegalStateException(String.format("Failed to check process(%d) list.", pid));
+            throw new IllegalStateException("Failed to check process list.");
         }
     }
 
@@ -679,62 +1655,1454 @@ public class Main
     }
     //endregion
 
-    //region Signal Handler.
-    private static boolean sign(int sign, int pid)
+    //region WAR Extraction Cache.
+    /**
+     * Returns the extracted web directory of the current WAR, extracting it only when no previous extraction of the same content exists.
+     * The returned directory is shared by all instances running the same WAR and is held by a shared lease until this JVM exits.
+     */
+    private static File prepareWebDir()
+            throws Exception
     {
-        String command = String.format("kill -%d %d", sign, pid);
-        Runtime runtime = Runtime.getRuntime();
-        BufferedInputStream bufferedInputStream = null;
-        BufferedReader bufferedReader = null;
-        try
+        File war = new File(WAR_FILENAME);
+        if(war.isDirectory())
         {
-            Process process = runtime.exec(command);
-            bufferedInputStream = new BufferedInputStream(process.getInputStream());
-            bufferedReader = new BufferedReader(new InputStreamReader(bufferedInputStream));
-            if(process.waitFor() != 0)
+            return war;
+        }
+        String hash = hashWar(war);
+        File webDir = new File(WORK_DIR, WEB_DIR_PREFIX + hash);
+        File lockFile = new File(WORK_DIR, "webapp.lock");
+        try(FileChannel channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE))
+        {
+            FileLock lock = channel.lock();
+            try
             {
-                if(process.exitValue() == 1)
+                if(new File(webDir, WEB_DIR_MARKER).isFile())
                 {
-                    error("Failed to notify the main process!");
+                    info("Reusing extracted WAR -> " + webDir.getName());
                 } else
                 {
-                    return true;
+                    extractWar(war, webDir);
                 }
+                WEB_DIR_LEASE = lease(webDir, true);
+                cleanWebDirs(webDir);
+            } finally
+            {
+                lock.release();
             }
-        } catch(Exception e)
+        }
+        return webDir;
+    }
+
+    private static String hashWar(File war)
+            throws Exception
+    {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        try(InputStream in = new FileInputStream(war))
         {
-            e.printStackTrace();
-        } finally
+            byte[] buffer = new byte[64 * 1024];
+            int len;
+            while((len = in.read(buffer)) > 0)
+            {
+                digest.update(buffer, 0, len);
+            }
+        }
+        StringBuilder builder = new StringBuilder();
+        for(byte b : digest.digest())
         {
-            try
+            builder.append(String.format("%02x", b));
+        }
+        return builder.substring(0, 32);
+    }
+
+    private static void extractWar(File war, File webDir)
+            throws IOException
+    {
+        long begin = System.currentTimeMillis();
+        File tmpDir = new File(WORK_DIR, webDir.getName() + '.' + CUR_PID + ".tmp");
+        deleteRecursively(tmpDir);
+        deleteRecursively(webDir);
+        String root = tmpDir.getCanonicalPath() + File.separator;
+        try(JarFile jar = new JarFile(war))
+        {
+            Enumeration<JarEntry> entries = jar.entries();
+            while(entries.hasMoreElements())
             {
-                if(bufferedReader != null)
+                JarEntry entry = entries.nextElement();
+                String name = entry.getName();
+                if(REG_LAUNCHER_ENTRY.matcher(name).matches())
                 {
-                    bufferedReader.close();
+                    continue;
                 }
-                if(bufferedInputStream != null)
+                File target = new File(tmpDir, name);
+                if(!target.getCanonicalPath().startsWith(root))
                 {
-                    bufferedInputStream.close();
+                    throw new IOException(String.format("Illegal entry in WAR -> %s", name));
+                }
+                if(entry.isDirectory())
+                {
+                    if(!target.isDirectory() && !target.mkdirs())
+                    {
+                        throw new IOException(String.format("Failed to create directory -> %s", target));
+                    }
+                } else
+                {
+                    File parent = target.getParentFile();
+                    if(!parent.isDirectory() && !parent.mkdirs())
+                    {
+                        throw new IOException(String.format("Failed to create directory -> %s", parent));
+                    }
+                    try(InputStream in = jar.getInputStream(entry))
+                    {
+                        Files.copy(in, target.toPath());
+                    }
+                    if(entry.getTime() > 0)
+                    {
+                        target.setLastModified(entry.getTime());
+                    }
+                    target.setReadOnly();
                 }
-            } catch(IOException e)
-            {
-                e.printStackTrace();
             }
         }
-        return false;
+        if(!new File(tmpDir, WEB_DIR_MARKER).createNewFile())
+        {
+            throw new IOException("Failed to mark extracted WAR!");
+        }
+        Files.move(tmpDir.toPath(), webDir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        info(String.format("WAR extracted -> %s (%dms)", webDir.getName(), System.currentTimeMillis() - begin));
     }
 
-    private static class ServerInstance
+    private static FileLock lease(File webDir, boolean wait)
+            throws IOException
     {
-        public String ctx;
-        private int port;
-        private String id;
+        File leaseFile = new File(WORK_DIR, webDir.getName() + ".lease");
+        FileChannel channel = FileChannel.open(leaseFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileLock lock = wait ? channel.lock(0, Long.MAX_VALUE, true) : channel.tryLock();
+        if(lock == null)
+        {
+            channel.close();
+        }
+        return lock;
+    }
 
-        public ServerInstance(int port, String id, String ctx)
+    /**
+     * Removes extractions of other WAR versions which are no longer leased by any running instance.
+     */
+    private static void cleanWebDirs(File current)
+    {
+        File[] files = WORK_DIR.listFiles();
+        if(files == null)
         {
-            this.port = port;
-            this.id = id;
-            this.ctx = ctx;
+            return;
+        }
+        for(File file : files)
+        {
+            String name = file.getName();
+            if(file.isDirectory() && REG_WEB_DIR.matcher(name).matches() && !file.equals(current))
+            {
+                try
+                {
+                    FileLock lock = lease(file, false);
+                    if(lock != null)
+                    {
+                        try
+                        {
+                            info("Removing stale extracted WAR -> " + name);
+                            deleteRecursively(file);
+                        } finally
+                        {
+                            lock.release();
+                            lock.channel().close();
+                            Files.deleteIfExists(new File(WORK_DIR, name + ".lease").toPath());
+                        }
+                    }
+                } catch(Exception e)
+                {
+                    error(String.format("Failed to remove stale extracted WAR -> %s", name));
+                }
+            }
+        }
+    }
+
+    private static void deleteRecursively(File file)
+            throws IOException
+    {
+        if(file.isDirectory())
+        {
+            File[] children = file.listFiles();
+            if(children != null)
+            {
+                for(File child : children)
+                {
+                    deleteRecursively(child);
+                }
+            }
+        }
+        if(file.exists())
+        {
+            file.setWritable(true);
+            Files.delete(file.toPath());
+        }
+    }
+    //endregion
+
+    //region Signal Handler.
+    private static boolean sign(int sign, int pid)
+    {
+        String command = String.format("kill -%d %d", sign, pid);
+        Runtime runtime = Runtime.getRuntime();
+        BufferedInputStream bufferedInputStream = null;
+        BufferedReader bufferedReader = null;
+        try
+        {
+            Process process = runtime.exec(command);
+            bufferedInputStream = new BufferedInputStream(process.getInputStream());
+            bufferedReader = new BufferedReader(new InputStreamReader(bufferedInputStream));
+            if(process.waitFor() != 0)
+            {
+                if(process.exitValue() == 1)
+                {
+                    error("Failed to notify the main process!");
+                } else
+                {
+                    return true;
+                }
+            }
+        } catch(Exception e)
+        {
+            e.printStackTrace();
+        } finally
+        {
+            try
+            {
+                if(bufferedReader != null)
+                {
+                    bufferedReader.close();
+                }
+                if(bufferedInputStream != null)
+                {
+                    bufferedInputStream.close();
+                }
+            } catch(IOException e)
+            {
+                e.printStackTrace();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reports the time from JVM launch to the first served request.
+     */
+    private static class FirstRequestReporter extends HandlerWrapper
+    {
+        private volatile boolean reported;
+
+        FirstRequestReporter(Handler handler)
+        {
+            setHandler(handler);
+        }
+
+        @Override
+        public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)
+                throws IOException, ServletException
+        {
+            try
+            {
+                super.handle(target, baseRequest, request, response);
+            } finally
+            {
+                if(!reported)
+                {
+                    reported = true;
+                    info(String.format("First request served in %dms since launch.", ManagementFactory.getRuntimeMXBean().getUptime()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Records the latency of the requests of one context, including asynchronous ones, for {@link StatsPublisher}.
+     */
+    private static class LatencyRecorder extends HandlerWrapper
+    {
+        private final LatencyHistogram histogram = new LatencyHistogram();
+
+        LatencyRecorder(Handler handler)
+        {
+            setHandler(handler);
+        }
+
+        @Override
+        public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)
+                throws IOException, ServletException
+        {
+            if(baseRequest.getDispatcherType() == DispatcherType.ASYNC)
+            {
+                super.handle(target, baseRequest, request, response);
+                return;
+            }
+            long start = System.nanoTime();
+            try
+            {
+                super.handle(target, baseRequest, request, response);
+            } finally
+            {
+                if(request.isAsyncStarted())
+                {
+                    request.getAsyncContext().addListener(new AsyncListener()
+                    {
+                        @Override
+                        public void onComplete(AsyncEvent event)
+                        {
+                            histogram.record((System.nanoTime() - start) / 1000);
+                        }
+
+                        @Override
+                        public void onTimeout(AsyncEvent event)
+                        {
+                        }
+
+                        @Override
+                        public void onError(AsyncEvent event)
+                        {
+                        }
+
+                        @Override
+                        public void onStartAsync(AsyncEvent event)
+                        {
+                            event.getAsyncContext().addListener(this);
+                        }
+                    });
+                } else
+                {
+                    histogram.record((System.nanoTime() - start) / 1000);
+                }
+            }
+        }
+    }
+
+    /**
+     * Publishes the load of this process every {@link #STATS_INTERVAL} to 'work/stats/<pid>.properties', where 'stats' reads it.
+     * Rates and the p99 latency are taken over the last {@link #WINDOW} samples.
+     */
+    private static class StatsPublisher implements Runnable
+    {
+        private static final int WINDOW = 10;
+        private final File file = new File(STATS_DIR, CUR_PID + ".properties");
+        private final Deque<Sample> samples = new ArrayDeque<>();
+
+        static void start()
+        {
+            ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable->{
+                Thread thread = new Thread(runnable, "StatsPublisher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.scheduleWithFixedDelay(new StatsPublisher(), 0, STATS_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+
+        static void delete(int pid)
+        {
+            new File(STATS_DIR, pid + ".properties").delete();
+        }
+
+        static Properties read(int pid)
+        {
+            Properties stats = new Properties();
+            try(InputStream in = new FileInputStream(new File(STATS_DIR, pid + ".properties")))
+            {
+                stats.load(in);
+                return stats;
+            } catch(IOException e)
+            {
+                return null;
+            }
+        }
+
+        /**
+         * @return the key prefix('app.N.') of the published context matching the record, null if there is none.
+         */
+        static String findApp(Properties stats, ServerInstance inst)
+        {
+            int count = Integer.parseInt(stats.getProperty("apps", "0"));
+            for(int i = 0; i < count; i++)
+            {
+                String prefix = "app." + i + '.';
+                if(inst.id.equals(stats.getProperty(prefix + "id")) && inst.ctx.equals(stats.getProperty(prefix + "ctx")) &&
+                   String.valueOf(inst.port).equals(stats.getProperty(prefix + "port")) && inst.sock.equals(stats.getProperty(prefix + "sock")))
+                {
+                    return prefix;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                publish();
+            } catch(Exception e)
+            {
+                e.printStackTrace();
+            }
+        }
+
+        private void publish()
+                throws IOException
+        {
+            List<AppConfig> apps;
+            synchronized(Main.class)
+            {
+                apps = new ArrayList<>(APPS);
+            }
+            if(apps.isEmpty())
+            {
+                return;
+            }
+            Sample sample = new Sample(apps);
+            samples.addLast(sample);
+            if(samples.size() > WINDOW + 1)
+            {
+                samples.removeFirst();
+            }
+            Sample first = samples.getFirst();
+            long elapsed = Math.max(1, sample.time - first.time);
+            Properties stats = new Properties();
+            stats.setProperty("time", String.valueOf(sample.time));
+            stats.setProperty("uptime", String.valueOf(ManagementFactory.getRuntimeMXBean().getUptime()));
+            ThreadPool pool = JETTY_SERVER.getThreadPool();
+            stats.setProperty("threads.busy", String.valueOf(pool.getThreads() - pool.getIdleThreads()));
+            stats.setProperty("threads.max", pool instanceof ThreadPool.SizedThreadPool ? String.valueOf(((ThreadPool.SizedThreadPool)pool).getMaxThreads()) : "virtual");
+            stats.setProperty("threads.queue", String.valueOf(pool instanceof QueuedThreadPool ? ((QueuedThreadPool)pool).getQueueSize() : 0));
+            MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+            stats.setProperty("heap.used", String.valueOf(heap.getUsed()));
+            stats.setProperty("heap.max", String.valueOf(heap.getMax() > 0 ? heap.getMax() : heap.getCommitted()));
+            stats.setProperty("gc.percent", String.format("%.1f", (sample.gcMillis - first.gcMillis) * 100.0 / elapsed));
+            stats.setProperty("apps", String.valueOf(apps.size()));
+            for(int i = 0; i < apps.size(); i++)
+            {
+                AppConfig app = apps.get(i);
+                String prefix = "app." + i + '.';
+                LatencyHistogram.Snapshot latest = sample.latencies.get(app);
+                LatencyHistogram.Snapshot earliest = first.latencies.get(app);
+                LatencyHistogram.Snapshot window = earliest == null ? latest : latest.since(earliest);
+                int connections = 0;
+                for(Connector connector : JETTY_SERVER.getConnectors())
+                {
+                    if(app.getConnectorNames().contains(connector.getName()))
+                    {
+                        connections += connector.getConnectedEndPoints().size();
+                    }
+                }
+                stats.setProperty(prefix + "id", app.id);
+                stats.setProperty(prefix + "ctx", app.ctx);
+                stats.setProperty(prefix + "port", String.valueOf(app.port));
+                stats.setProperty(prefix + "sock", app.sock == null ? "" : app.sock);
+                stats.setProperty(prefix + "rps", String.format("%.1f", window.getCount() * 1000.0 / elapsed));
+                stats.setProperty(prefix + "p99", String.format("%.1f", window.getValueAt(0.99) / 1000.0));
+                stats.setProperty(prefix + "active", String.valueOf(app.stats.getRequestsActive()));
+                stats.setProperty(prefix + "connections", String.valueOf(connections));
+            }
+            if(!STATS_DIR.isDirectory() && !STATS_DIR.mkdirs())
+            {
+                throw new IOException("Failed to create stats directory!");
+            }
+            // Readers always see a complete file.
+            File temp = new File(STATS_DIR, CUR_PID + ".tmp");
+            try(OutputStream out = new FileOutputStream(temp))
+            {
+                stats.store(out, null);
+            }
+            synchronized(Main.class)
+            {
+                // The last context stopped in the meantime and took the file with it.
+                if(APPS.isEmpty())
+                {
+                    temp.delete();
+                    return;
+                }
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+
+        private static class Sample
+        {
+            private final long time = System.currentTimeMillis();
+            private final long gcMillis;
+            private final Map<AppConfig, LatencyHistogram.Snapshot> latencies = new IdentityHashMap<>();
+
+            Sample(List<AppConfig> apps)
+            {
+                long total = 0;
+                for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+                {
+                    total += Math.max(0, gc.getCollectionTime());
+                }
+                gcMillis = total;
+                apps.forEach(app->latencies.put(app, app.latency.histogram.snapshot()));
+            }
+        }
+    }
+
+    /**
+     * Runs blocking tasks(request handling) on virtual threads and everything else(selectors, acceptors, non-blocking callbacks)
+     * on a platform pool. It is deliberately not a TryExecutor, so selectors hand blocking tasks over instead of running them inline.
+     * HttpChannel(and HttpChannelOverHTTP2) is a plain Runnable without an invocation type, so channels are matched by their class:
+     * this sends async re-dispatches and h2c requests to virtual threads too.
+     */
+    private static class VirtualThreadPool extends ContainerLifeCycle implements ThreadPool
+    {
+        private final QueuedThreadPool core;
+        private final ExecutorService virtualExecutor;
+        private final AtomicInteger virtualThreads = new AtomicInteger();
+
+        VirtualThreadPool(QueuedThreadPool core)
+        {
+            this.core = core;
+            try
+            {
+                virtualExecutor = (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch(ReflectiveOperationException e)
+            {
+                throw new IllegalStateException("Virtual threads require Java 21 or later!", e);
+            }
+            addBean(core);
+        }
+
+        @Override
+        public void execute(Runnable job)
+        {
+            if(job instanceof HttpChannel || job instanceof Invocable && ((Invocable)job).getInvocationType() == Invocable.InvocationType.BLOCKING)
+            {
+                virtualExecutor.execute(()->{
+                    virtualThreads.incrementAndGet();
+                    try
+                    {
+                        job.run();
+                    } finally
+                    {
+                        virtualThreads.decrementAndGet();
+                    }
+                });
+            } else
+            {
+                core.execute(job);
+            }
+        }
+
+        @Override
+        public void join()
+                throws InterruptedException
+        {
+            core.join();
+        }
+
+        @Override
+        public int getThreads()
+        {
+            return core.getThreads() + virtualThreads.get();
+        }
+
+        @Override
+        public int getIdleThreads()
+        {
+            return core.getIdleThreads();
+        }
+
+        @Override
+        public boolean isLowOnThreads()
+        {
+            return false;
+        }
+
+        @Override
+        protected void doStop()
+                throws Exception
+        {
+            virtualExecutor.shutdown();
+            super.doStop();
+        }
+    }
+
+    /**
+     * Compression of the dynamic responses. Deflaters are pooled across requests, a response below the minimum size is sent as it is.
+     */
+    private static class GzipConfig
+    {
+        private boolean enabled = true;
+        private int minSize = 256;
+        private int level = Deflater.DEFAULT_COMPRESSION;
+        private int deflaters = -1;
+
+        Handler wrap(Handler handler)
+        {
+            if(!enabled)
+            {
+                return handler;
+            }
+            GzipHandler gzip = new GzipHandler();
+            gzip.setMinGzipSize(minSize);
+            gzip.setCompressionLevel(level);
+            if(deflaters > 0)
+            {
+                gzip.setDeflaterPoolCapacity(deflaters);
+            }
+            gzip.setHandler(handler);
+            return gzip;
+        }
+
+        @Override
+        public String toString()
+        {
+            if(!enabled)
+            {
+                return "precompressed";
+            }
+            return String.format("precompressed, gzip(min=%d, level=%s, deflaters=%s)", minSize, level < 0 ? "default" : level,
+                    deflaters < 0 ? "default" : deflaters);
+        }
+    }
+
+    private static class ConnectorConfig
+    {
+        private int acceptors = -1;
+        private int selectors = -1;
+        private int backlog = 0;
+        private int idleTimeout = 30000;
+        private boolean reusePort;
+        private int groups = 1;
+        private boolean h2c;
+        private int h2Streams = 128;
+        private int h2StreamWindow = 512 * 1024;
+        private int h2SessionWindow = 1024 * 1024;
+        private boolean takeOver;
+
+        String describeProtocols()
+        {
+            if(!h2c)
+            {
+                return "http/1.1";
+            }
+            return String.format("http/1.1, h2c(streams=%d, window=%d, session window=%d)", h2Streams, h2StreamWindow, h2SessionWindow);
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("acceptors=%s, selectors=%s, backlog=%s, idle=%dms, reuseport=%s, groups=%d", acceptors < 0 ? "default" : acceptors,
+                    selectors < 0 ? "default" : selectors, backlog == 0 ? "default" : backlog, idleTimeout, reusePort ? "on" : "off", groups);
+        }
+    }
+
+    /**
+     * Connector which applies the tuning options and can bind its port with SO_REUSEPORT, so several connectors(and processes) share one port.
+     */
+    private static class TunedConnector extends NetworkTrafficServerConnector
+    {
+        private static final SocketOption<Boolean> SO_REUSEPORT = getReusePortOption();
+        private final boolean reusePort;
+
+        TunedConnector(Server server, Scheduler scheduler, ByteBufferPool bufferPool, ConnectorConfig config, ConnectionFactory... factories)
+        {
+            super(server, null, scheduler, bufferPool, config.acceptors, config.selectors, factories);
+            this.reusePort = config.reusePort;
+            setSoLingerTime(-1);
+            setAcceptQueueSize(config.backlog);
+            setIdleTimeout(config.idleTimeout);
+        }
+
+        static boolean isReusePortSupported()
+        {
+            return SO_REUSEPORT != null && isLinux();
+        }
+
+        @SuppressWarnings("unchecked")
+        private static SocketOption<Boolean> getReusePortOption()
+        {
+            try
+            {
+                return (SocketOption<Boolean>)StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+            } catch(ReflectiveOperationException e)
+            {
+                return null;
+            }
+        }
+
+        @Override
+        protected ServerSocketChannel openAcceptChannel()
+                throws IOException
+        {
+            if(!reusePort)
+            {
+                return super.openAcceptChannel();
+            }
+            InetSocketAddress bindAddress = getHost() == null ? new InetSocketAddress(getPort()) : new InetSocketAddress(getHost(), getPort());
+            ServerSocketChannel serverChannel = ServerSocketChannel.open();
+            try
+            {
+                serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, getReuseAddress());
+                serverChannel.setOption(SO_REUSEPORT, true);
+                serverChannel.bind(bindAddress, getAcceptQueueSize());
+            } catch(Throwable e)
+            {
+                IO.close(serverChannel);
+                throw new IOException("Failed to bind to " + bindAddress, e);
+            }
+            return serverChannel;
+        }
+    }
+
+    /**
+     * Connector on a Unix domain socket, for proxies running on the same host. Jetty's own UnixSocketConnector needs the native jnr libraries,
+     * this one uses the JDK channels(Java 16+), looked up reflectively so the launcher still runs on Java 8.
+     */
+    private static class UnixSocketConnector extends AbstractConnector
+    {
+        private static final ProtocolFamily UNIX = getUnixProtocolFamily();
+        private final Path path;
+        private final int backlog;
+        private final boolean takeOver;
+        private final SelectorManager selectorManager;
+        private volatile ServerSocketChannel acceptChannel;
+        private Object fileKey;
+
+        UnixSocketConnector(Server server, Scheduler scheduler, ByteBufferPool bufferPool, ConnectorConfig config, File path, ConnectionFactory... factories)
+        {
+            super(server, null, scheduler, bufferPool, Math.max(1, config.acceptors), factories);
+            this.path = path.toPath();
+            this.backlog = config.backlog;
+            this.takeOver = config.takeOver;
+            this.selectorManager = new UnixSocketSelectorManager(getExecutor(), getScheduler(), config.selectors);
+            addBean(selectorManager, true);
+            setIdleTimeout(config.idleTimeout);
+        }
+
+        static boolean isSupported()
+        {
+            return UNIX != null;
+        }
+
+        private static ProtocolFamily getUnixProtocolFamily()
+        {
+            try
+            {
+                return StandardProtocolFamily.valueOf("UNIX");
+            } catch(IllegalArgumentException e)
+            {
+                return null;
+            }
+        }
+
+        @Override
+        protected void doStart()
+                throws Exception
+        {
+            acceptChannel = open();
+            try
+            {
+                super.doStart();
+            } catch(Exception e)
+            {
+                close();
+                throw e;
+            }
+        }
+
+        @Override
+        protected void doStop()
+                throws Exception
+        {
+            close();
+            super.doStop();
+        }
+
+        @Override
+        protected void accept(int acceptorID)
+                throws IOException
+        {
+            ServerSocketChannel serverChannel = acceptChannel;
+            if(serverChannel == null)
+            {
+                throw new ClosedChannelException();
+            }
+            SocketChannel channel = serverChannel.accept();
+            channel.configureBlocking(false);
+            selectorManager.accept(channel);
+        }
+
+        @Override
+        protected boolean handleAcceptFailure(Throwable ex)
+        {
+            // Once closed, the acceptors just end.
+            return acceptChannel != null && super.handleAcceptFailure(ex);
+        }
+
+        /**
+         * Stops accepting like the TCP connectors do, the open connections are closed after their current response.
+         */
+        @Override
+        public Future<Void> shutdown()
+        {
+            close();
+            return super.shutdown();
+        }
+
+        @Override
+        public Object getTransport()
+        {
+            return acceptChannel;
+        }
+
+        /**
+         * Binds the socket. A socket file left behind by a dead process is replaced, a live one only by a replacement('restart'):
+         * it binds next to it and renames its socket over the path, so new connections arrive here while the old process drains.
+         */
+        private ServerSocketChannel open()
+                throws IOException
+        {
+            Path bindPath = path;
+            if(Files.exists(path, LinkOption.NOFOLLOW_LINKS))
+            {
+                if(!getAttributes(path).isOther())
+                {
+                    throw new IOException("Socket path is in use -> " + path);
+                }
+                if(!isListening(newAddress(path)))
+                {
+                    Files.delete(path);
+                } else if(takeOver)
+                {
+                    bindPath = path.resolveSibling(path.getFileName() + "." + CUR_PID + ".tmp");
+                    Files.deleteIfExists(bindPath);
+                } else
+                {
+                    throw new IOException("Socket path is in use -> " + path);
+                }
+            }
+            ServerSocketChannel serverChannel = (ServerSocketChannel)invoke(ServerSocketChannel.class, "open", ProtocolFamily.class, UNIX);
+            try
+            {
+                serverChannel.bind(newAddress(bindPath), backlog);
+                serverChannel.configureBlocking(true);
+                if(bindPath != path)
+                {
+                    Files.move(bindPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                }
+                fileKey = getAttributes(path).fileKey();
+            } catch(Throwable e)
+            {
+                IO.close(serverChannel);
+                throw new IOException("Failed to bind to " + path, e);
+            }
+            return serverChannel;
+        }
+
+        private void close()
+        {
+            ServerSocketChannel serverChannel = acceptChannel;
+            acceptChannel = null;
+            if(serverChannel != null)
+            {
+                IO.close(serverChannel);
+                try
+                {
+                    // After a takeover the path belongs to the replacement.
+                    if(Files.exists(path, LinkOption.NOFOLLOW_LINKS) && Objects.equals(fileKey, getAttributes(path).fileKey()))
+                    {
+                        Files.delete(path);
+                    }
+                } catch(IOException e)
+                {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        private static BasicFileAttributes getAttributes(Path path)
+                throws IOException
+        {
+            return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        }
+
+        private static boolean isListening(SocketAddress address)
+        {
+            try(SocketChannel channel = (SocketChannel)invoke(SocketChannel.class, "open", ProtocolFamily.class, UNIX))
+            {
+                return channel.connect(address);
+            } catch(IOException e)
+            {
+                return false;
+            }
+        }
+
+        private static SocketAddress newAddress(Path path)
+                throws IOException
+        {
+            try
+            {
+                return (SocketAddress)invoke(Class.forName("java.net.UnixDomainSocketAddress"), "of", Path.class, path);
+            } catch(ClassNotFoundException e)
+            {
+                throw new IOException("Unix domain sockets are not supported by this JVM!", e);
+            }
+        }
+
+        private static Object invoke(Class<?> type, String method, Class<?> parameterType, Object argument)
+                throws IOException
+        {
+            try
+            {
+                return type.getMethod(method, parameterType).invoke(null, argument);
+            } catch(InvocationTargetException e)
+            {
+                Throwable cause = e.getCause();
+                throw cause instanceof IOException ? (IOException)cause : new IOException(cause);
+            } catch(ReflectiveOperationException e)
+            {
+                throw new IOException(e);
+            }
+        }
+
+        private class UnixSocketSelectorManager extends SelectorManager
+        {
+            UnixSocketSelectorManager(Executor executor, Scheduler scheduler, int selectors)
+            {
+                super(executor, scheduler, selectors);
+            }
+
+            @Override
+            protected EndPoint newEndPoint(SelectableChannel channel, ManagedSelector selector, SelectionKey key)
+            {
+                UnixSocketEndPoint endPoint = new UnixSocketEndPoint((SocketChannel)channel, selector, key, getScheduler());
+                endPoint.setIdleTimeout(getIdleTimeout());
+                return endPoint;
+            }
+
+            @Override
+            public org.eclipse.jetty.io.Connection newConnection(SelectableChannel channel, EndPoint endPoint, Object attachment)
+            {
+                return getDefaultConnectionFactory().newConnection(UnixSocketConnector.this, endPoint);
+            }
+
+            @Override
+            protected void endPointOpened(EndPoint endPoint)
+            {
+                super.endPointOpened(endPoint);
+                onEndPointOpened(endPoint);
+            }
+
+            @Override
+            protected void endPointClosed(EndPoint endPoint)
+            {
+                onEndPointClosed(endPoint);
+                super.endPointClosed(endPoint);
+            }
+        }
+    }
+
+    /**
+     * Unix domain channels have no Socket adapter and no inet addresses, so the request's remote/local addresses stay empty.
+     */
+    private static class UnixSocketEndPoint extends ChannelEndPoint
+    {
+        private final SocketChannel channel;
+
+        UnixSocketEndPoint(SocketChannel channel, ManagedSelector selector, SelectionKey key, Scheduler scheduler)
+        {
+            super(channel, selector, key, scheduler);
+            this.channel = channel;
+        }
+
+        @Override
+        public InetSocketAddress getLocalAddress()
+        {
+            return null;
+        }
+
+        @Override
+        public InetSocketAddress getRemoteAddress()
+        {
+            return null;
+        }
+
+        @Override
+        protected void doShutdownOutput()
+        {
+            try
+            {
+                channel.shutdownOutput();
+            } catch(IOException ignored)
+            {
+                // The peer has closed the connection already.
+            }
+        }
+    }
+
+    private static class AppConfig
+    {
+        private final int port;
+        private final String sock;
+        private final String ctx;
+        private final String id;
+        private WebAppContext webApp;
+        private StatisticsHandler stats;
+        private LatencyRecorder latency;
+
+        AppConfig(int port, String sock, String ctx, String id)
+        {
+            this.port = port;
+            this.sock = sock;
+            this.ctx = ctx;
+            this.id = id;
+        }
+
+        boolean matches(ServerInstance inst)
+        {
+            return port == inst.port && Objects.equals(sock, inst.sock.isEmpty() ? null : inst.sock) && ctx.equals(inst.ctx) && id.equals(inst.id);
+        }
+
+        List<String> getConnectorNames()
+        {
+            List<String> names = new ArrayList<>(2);
+            if(port > 0)
+            {
+                names.add("port-" + port);
+            }
+            if(sock != null)
+            {
+                names.add("sock-" + sock);
+            }
+            return names;
+        }
+    }
+
+    static class ServerInstance
+    {
+        private final int pid;
+        private final long startTime;
+        private final int port;
+        private final String sock;
+        private final String id;
+        private final String ctx;
+        private final String exec;
+        private final int drainTimeout;
+        private final boolean stopRequested;
+
+        public ServerInstance(int pid, long startTime, int port, String sock, String id, String ctx, String exec, int drainTimeout)
+        {
+            this(pid, startTime, port, sock, id, ctx, exec, drainTimeout, false);
+        }
+
+        private ServerInstance(int pid, long startTime, int port, String sock, String id, String ctx, String exec, int drainTimeout, boolean stopRequested)
+        {
+            this.pid = pid;
+            this.startTime = startTime;
+            this.port = port;
+            this.sock = sock;
+            this.id = id;
+            this.ctx = ctx;
+            this.exec = exec;
+            this.drainTimeout = drainTimeout;
+            this.stopRequested = stopRequested;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if(this == o)
+            {
+                return true;
+            }
+            if(!(o instanceof ServerInstance))
+            {
+                return false;
+            }
+            ServerInstance that = (ServerInstance)o;
+            return pid == that.pid && startTime == that.startTime && port == that.port && sock.equals(that.sock) && id.equals(that.id) && ctx.equals(that.ctx);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(pid, startTime, port, sock, id, ctx);
+        }
+    }
+
+    /**
+     * Fixed-record binary registry of running instances('pid.reg'), memory-mapped and updated in place.
+     * <p>
+     * Readers take a shared lock for the snapshot only, writers take an exclusive lock for the update only.
+     * Removed records become tombstones whose slots are reused by later registrations; the first free slot ends the table.
+     */
+    static class InstanceRegistry
+    {
+        private static final int MAGIC = 0x57545247;
+        private static final int VERSION = 1;
+        private static final int HEADER_SIZE = 64;
+        private static final int RECORD_SIZE = 512;
+        private static final int INITIAL_CAPACITY = 64;
+        private static final int H_MAGIC = 0;
+        private static final int H_VERSION = 4;
+        private static final int H_RECORD_SIZE = 8;
+        private static final int SLOT_FREE = 0;
+        private static final int SLOT_USED = 1;
+        private static final int SLOT_TOMBSTONE = 2;
+        private static final int FLAG_STOP = 1;
+        private static final int FLAG_DRAINED = 2;
+        private static final int R_STATE = 0;
+        private static final int R_PID = 4;
+        private static final int R_START_TIME = 8;
+        private static final int R_PORT = 16;
+        private static final int R_FLAGS = 20;
+        private static final int R_ID = 32;
+        private static final int R_CTX = 96;
+        private static final int ID_SIZE = 64;
+        private static final int CTX_SIZE = 160;
+        private static final int R_EXEC = 256;
+        private static final int EXEC_SIZE = 64;
+        private static final int R_SOCK = 320;
+        private static final int SOCK_SIZE = 128;
+        private static final int R_DRAIN_TIMEOUT = 448;
+        private static final int R_DRAINED = 452;
+        private static final int R_DRAIN_MILLIS = 456;
+        private final FileChannel channel;
+        private MappedByteBuffer buffer;
+        private int capacity;
+
+        private InstanceRegistry(FileChannel channel)
+        {
+            this.channel = channel;
+        }
+
+        static InstanceRegistry open(File file, File legacyFile)
+                throws IOException
+        {
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            InstanceRegistry registry = new InstanceRegistry(channel);
+            try
+            {
+                if(channel.size() < HEADER_SIZE || legacyFile.isFile())
+                {
+                    FileLock lock = channel.lock();
+                    try
+                    {
+                        if(channel.size() < HEADER_SIZE)
+                        {
+                            registry.format();
+                        }
+                        if(legacyFile.isFile())
+                        {
+                            registry.migrate(legacyFile);
+                        }
+                    } finally
+                    {
+                        lock.release();
+                    }
+                }
+            } catch(IOException | RuntimeException e)
+            {
+                channel.close();
+                throw e;
+            }
+            return registry;
+        }
+
+        synchronized List<ServerInstance> read()
+                throws IOException
+        {
+            FileLock lock = channel.lock(0, Long.MAX_VALUE, true);
+            try
+            {
+                remap();
+                List<ServerInstance> result = new ArrayList<>();
+                for(int slot = 0; slot < capacity; slot++)
+                {
+                    int offset = offset(slot);
+                    int state = buffer.getInt(offset + R_STATE);
+                    if(state == SLOT_FREE)
+                    {
+                        break;
+                    }
+                    if(state == SLOT_USED)
+                    {
+                        result.add(readRecord(offset));
+                    }
+                }
+                return result;
+            } finally
+            {
+                lock.release();
+            }
+        }
+
+        synchronized void register(ServerInstance inst)
+                throws IOException
+        {
+            FileLock lock = channel.lock();
+            try
+            {
+                remap();
+                write(inst);
+            } finally
+            {
+                lock.release();
+            }
+        }
+
+        /**
+         * Registers the replacements and requests the replaced records to stop under one lock, so readers never see both as running.
+         */
+        synchronized void swap(Predicate<ServerInstance> replaced, List<ServerInstance> replacements)
+                throws IOException
+        {
+            FileLock lock = channel.lock();
+            try
+            {
+                remap();
+                for(ServerInstance inst : replacements)
+                {
+                    write(inst);
+                }
+                apply(replaced, offset->buffer.putInt(offset + R_FLAGS, buffer.getInt(offset + R_FLAGS) | FLAG_STOP));
+            } finally
+            {
+                lock.release();
+            }
+        }
+
+        synchronized int remove(Predicate<ServerInstance> filter)
+                throws IOException
+        {
+            return update(filter, offset->buffer.putInt(offset + R_STATE, SLOT_TOMBSTONE));
+        }
+
+        /**
+         * Flags the matching records; the hosting process stops them on its next poll.
+         */
+        synchronized int requestStop(Predicate<ServerInstance> filter)
+                throws IOException
+        {
+            return update(filter, offset->buffer.putInt(offset + R_FLAGS, buffer.getInt(offset + R_FLAGS) | FLAG_STOP));
+        }
+
+        /**
+         * Removes the matching records, leaving the drain result in the tombstones for the process waiting on them.
+         */
+        synchronized int retire(Predicate<ServerInstance> filter, int drained, int drainMillis)
+                throws IOException
+        {
+            return update(filter, offset->{
+                buffer.putInt(offset + R_DRAINED, drained);
+                buffer.putInt(offset + R_DRAIN_MILLIS, drainMillis);
+                buffer.putInt(offset + R_FLAGS, buffer.getInt(offset + R_FLAGS) | FLAG_DRAINED);
+                buffer.putInt(offset + R_STATE, SLOT_TOMBSTONE);
+            });
+        }
+
+        /**
+         * @return {drained requests, drain time(ms)} of a retired record, or null if it was removed otherwise or its slot is reused.
+         */
+        synchronized int[] getDrainResult(ServerInstance inst)
+                throws IOException
+        {
+            FileLock lock = channel.lock(0, Long.MAX_VALUE, true);
+            try
+            {
+                remap();
+                for(int slot = 0; slot < capacity; slot++)
+                {
+                    int offset = offset(slot);
+                    int state = buffer.getInt(offset + R_STATE);
+                    if(state == SLOT_FREE)
+                    {
+                        break;
+                    }
+                    if(state == SLOT_TOMBSTONE && (buffer.getInt(offset + R_FLAGS) & FLAG_DRAINED) != 0 && inst.equals(readRecord(offset)))
+                    {
+                        return new int[]{buffer.getInt(offset + R_DRAINED), buffer.getInt(offset + R_DRAIN_MILLIS)};
+                    }
+                }
+                return null;
+            } finally
+            {
+                lock.release();
+            }
+        }
+
+        private int update(Predicate<ServerInstance> filter, IntConsumer writer)
+                throws IOException
+        {
+            FileLock lock = channel.lock();
+            try
+            {
+                remap();
+                return apply(filter, writer);
+            } finally
+            {
+                lock.release();
+            }
+        }
+
+        /**
+         * Applies the writer to the matching records, the caller holds the exclusive lock.
+         */
+        private int apply(Predicate<ServerInstance> filter, IntConsumer writer)
+        {
+            int count = 0;
+            for(int slot = 0; slot < capacity; slot++)
+            {
+                int offset = offset(slot);
+                int state = buffer.getInt(offset + R_STATE);
+                if(state == SLOT_FREE)
+                {
+                    break;
+                }
+                if(state == SLOT_USED && filter.test(readRecord(offset)))
+                {
+                    writer.accept(offset);
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        private ServerInstance readRecord(int offset)
+        {
+            return new ServerInstance(buffer.getInt(offset + R_PID), buffer.getLong(offset + R_START_TIME), buffer.getInt(offset + R_PORT),
+                    getString(offset + R_SOCK), getString(offset + R_ID), getString(offset + R_CTX), getString(offset + R_EXEC),
+                    buffer.getInt(offset + R_DRAIN_TIMEOUT), (buffer.getInt(offset + R_FLAGS) & FLAG_STOP) != 0);
+        }
+
+        synchronized void close()
+        {
+            try
+            {
+                channel.close();
+            } catch(IOException e)
+            {
+                e.printStackTrace();
+            }
+        }
+
+        private void write(ServerInstance inst)
+                throws IOException
+        {
+            int slot = allocate();
+            int offset = offset(slot);
+            buffer.putInt(offset + R_PID, inst.pid);
+            buffer.putLong(offset + R_START_TIME, inst.startTime);
+            buffer.putInt(offset + R_PORT, inst.port);
+            buffer.putInt(offset + R_FLAGS, 0);
+            putString(offset + R_ID, ID_SIZE, inst.id);
+            putString(offset + R_CTX, CTX_SIZE, inst.ctx);
+            putString(offset + R_EXEC, EXEC_SIZE, inst.exec);
+            putString(offset + R_SOCK, SOCK_SIZE, inst.sock);
+            buffer.putInt(offset + R_DRAIN_TIMEOUT, inst.drainTimeout);
+            buffer.putInt(offset + R_STATE, SLOT_USED);
+        }
+
+        private int allocate()
+                throws IOException
+        {
+            for(int slot = 0; slot < capacity; slot++)
+            {
+                if(buffer.getInt(offset(slot) + R_STATE) != SLOT_USED)
+                {
+                    return slot;
+                }
+            }
+            int slot = capacity;
+            channel.write(ByteBuffer.allocate(1), (long)HEADER_SIZE + (long)capacity * 2 * RECORD_SIZE - 1);
+            remap();
+            return slot;
+        }
+
+        private void format()
+                throws IOException
+        {
+            ByteBuffer data = ByteBuffer.allocate(HEADER_SIZE + INITIAL_CAPACITY * RECORD_SIZE);
+            data.putInt(H_MAGIC, MAGIC);
+            data.putInt(H_VERSION, VERSION);
+            data.putInt(H_RECORD_SIZE, RECORD_SIZE);
+            channel.truncate(0);
+            channel.write(data, 0);
+        }
+
+        /**
+         * Imports the entries of the old text registry('pid,port,id,ctx[,startTime]|...') and deletes it.
+         */
+        private void migrate(File legacyFile)
+                throws IOException
+        {
+            remap();
+            String data = new String(Files.readAllBytes(legacyFile.toPath()));
+            for(String item : data.split("\\|"))
+            {
+                String[] array = item.split(",");
+                if(array.length == 4 || array.length == 5)
+                {
+                    try
+                    {
+                        long startTime = array.length == 5 ? Long.parseLong(array[4]) : 0;
+                        write(new ServerInstance(Integer.parseInt(array[0]), startTime, Integer.parseInt(array[1]), "", array[2], array[3], "", 0));
+                    } catch(NumberFormatException e)
+                    {
+                        error(String.format("Bad registry entry -> %s! Ignored.", item));
+                    }
+                }
+            }
+            Files.delete(legacyFile.toPath());
+            info(String.format("Registry migrated -> %s", legacyFile.getName()));
+        }
+
+        /**
+         * Maps the file again when it was created or grown(possibly by another process) since the last mapping.
+         */
+        private void remap()
+                throws IOException
+        {
+            long size = channel.size();
+            if(buffer == null || buffer.capacity() != size)
+            {
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                if(size < HEADER_SIZE || buffer.getInt(H_MAGIC) != MAGIC || buffer.getInt(H_VERSION) != VERSION || buffer.getInt(H_RECORD_SIZE) != RECORD_SIZE)
+                {
+                    throw new IOException("Unrecognized registry file!");
+                }
+                capacity = (int)((size - HEADER_SIZE) / RECORD_SIZE);
+            }
+        }
+
+        private String getString(int offset)
+        {
+            int length = buffer.getShort(offset);
+            byte[] bytes = new byte[length];
+            for(int i = 0; i < length; i++)
+            {
+                bytes[i] = buffer.get(offset + 2 + i);
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private void putString(int offset, int size, String value)
+        {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            if(bytes.length > size - 2)
+            {
+                throw new IllegalArgumentException(String.format("Value too long for the registry -> %s", value));
+            }
+            buffer.putShort(offset, (short)bytes.length);
+            for(int i = 0; i < bytes.length; i++)
+            {
+                buffer.put(offset + 2 + i, bytes[i]);
+            }
+        }
+
+        private static int offset(int slot)
+        {
+            return HEADER_SIZE + slot * RECORD_SIZE;
         }
     }
     //endregion
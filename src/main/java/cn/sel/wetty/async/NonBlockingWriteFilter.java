@@ -0,0 +1,143 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Erlu Shang (sel8616@gmail.com/philshang@163.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package cn.sel.wetty.async;
+
+import cn.sel.wetty.cache.CaptureResponseWrapper;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Holds back the body rendered by an async dispatch(the result of a CompletableFuture, DeferredResult...) and, if it is large, writes it
+ * with a {@link WriteListener}: the container thread is released and the rest is written whenever the client can take more. Smaller bodies
+ * fit the response buffer and are written as they are; bodies larger than 'maxBuffered' are passed through once they reach it.
+ */
+public class NonBlockingWriteFilter extends OncePerRequestFilter
+{
+    private static final Logger LOGGER = Logger.getAnonymousLogger();
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private int threshold = 32 * 1024;
+    private int maxBuffered = 256 * 1024;
+
+    /**
+     * Bodies from this size(bytes) on are written without blocking.
+     */
+    public void setThreshold(int threshold)
+    {
+        this.threshold = threshold;
+    }
+
+    /**
+     * The heap a response may hold back(bytes); the rest of larger bodies is written as it is produced, blocking as usual.
+     */
+    public void setMaxBuffered(int maxBuffered)
+    {
+        this.maxBuffered = maxBuffered;
+    }
+
+    @Override
+    protected boolean shouldNotFilterAsyncDispatch()
+    {
+        return false;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request)
+    {
+        return !isAsyncDispatch(request);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException
+    {
+        CaptureResponseWrapper wrapper = new CaptureResponseWrapper(response);
+        wrapper.capture(maxBuffered);
+        filterChain.doFilter(request, wrapper);
+        byte[] body = wrapper.finish();
+        if(body == null || body.length == 0)
+        {
+            return;
+        }
+        if(body.length < threshold || request.isAsyncStarted())
+        {
+            response.getOutputStream().write(body);
+            return;
+        }
+        response.setContentLength(body.length);
+        AsyncContext asyncContext = request.startAsync(request, response);
+        // A slow client is bounded by the connection's idle timeout, not by the time the whole body takes.
+        asyncContext.setTimeout(0);
+        ServletOutputStream out = response.getOutputStream();
+        out.setWriteListener(new BodyWriter(asyncContext, out, body));
+    }
+
+    private static class BodyWriter implements WriteListener
+    {
+        private final AsyncContext asyncContext;
+        private final ServletOutputStream out;
+        private final byte[] body;
+        private int offset;
+
+        BodyWriter(AsyncContext asyncContext, ServletOutputStream out, byte[] body)
+        {
+            this.asyncContext = asyncContext;
+            this.out = out;
+            this.body = body;
+        }
+
+        @Override
+        public void onWritePossible()
+                throws IOException
+        {
+            while(out.isReady())
+            {
+                if(offset == body.length)
+                {
+                    asyncContext.complete();
+                    return;
+                }
+                int length = Math.min(CHUNK_SIZE, body.length - offset);
+                out.write(body, offset, length);
+                offset += length;
+            }
+        }
+
+        @Override
+        public void onError(Throwable t)
+        {
+            LOGGER.log(Level.FINE, String.format("Failed to write %d of %d bytes!", body.length - offset, body.length), t);
+            asyncContext.complete();
+        }
+    }
+}
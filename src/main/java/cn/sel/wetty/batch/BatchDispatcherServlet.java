@@ -0,0 +1,407 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Erlu Shang (sel8616@gmail.com/philshang@163.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package cn.sel.wetty.batch;
+
+import cn.sel.wetty.cache.CaptureResponseWrapper;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.core.MethodParameter;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.context.request.async.WebAsyncTask;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.DispatcherServlet;
+import org.springframework.web.servlet.HandlerExecutionChain;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.util.UrlPathHelper;
+
+import javax.servlet.ServletException;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The webapp's DispatcherServlet, which also answers 'POST batchPath' with many calls in one round trip. The body is a JSON array of calls,
+ * e.g. [{"path": "/obj"}, {"path": "/msg", "params": {"k": "v"}, "accept": "text/plain"}]. Each is run as a GET through the same handler
+ * mappings, interceptors and converters as a request of its own, up to 'batchParallelism' at once on the 'batchExecutor', and the answer
+ * lists the status of each: [{"path": "/obj", "status": 200, "contentType": "application/json;charset=UTF-8", "body": {...}}, ...].
+ * JSON bodies are embedded as they are, text as strings and anything else in Base64. Calls of handlers rendering a view(a forward) or
+ * returning an async result are answered with 400, calls without a handler method(static resources, unknown paths) with 404.
+ */
+public class BatchDispatcherServlet extends DispatcherServlet
+{
+    private static final long serialVersionUID = 1L;
+    private static final Logger LOGGER = Logger.getAnonymousLogger();
+    private static final String BATCH_CONTENT_TYPE = "application/json;charset=UTF-8";
+    private static final Class<?>[] ASYNC_TYPES = {Callable.class, WebAsyncTask.class, DeferredResult.class, ListenableFuture.class,
+            CompletionStage.class, StreamingResponseBody.class, ResponseBodyEmitter.class};
+    private final UrlPathHelper urlPathHelper = new UrlPathHelper();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private String batchPath = "/batch";
+    private int maxBatchSize = 64;
+    private int batchParallelism = 4;
+    private String batchExecutor = "serviceExecutor";
+    private Executor executor;
+
+    public void setBatchPath(String batchPath)
+    {
+        this.batchPath = batchPath;
+    }
+
+    /**
+     * Larger batches are refused with 413.
+     */
+    public void setMaxBatchSize(int maxBatchSize)
+    {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Calls of one batch run at once, one of them on the container thread.
+     */
+    public void setBatchParallelism(int batchParallelism)
+    {
+        this.batchParallelism = batchParallelism;
+    }
+
+    /**
+     * Name of the Executor bean the calls run on.
+     */
+    public void setBatchExecutor(String batchExecutor)
+    {
+        this.batchExecutor = batchExecutor;
+    }
+
+    @Override
+    protected void initFrameworkServlet()
+            throws ServletException
+    {
+        executor = getWebApplicationContext().getBean(batchExecutor, Executor.class);
+    }
+
+    @Override
+    protected void doService(HttpServletRequest request, HttpServletResponse response)
+            throws Exception
+    {
+        if(!(request instanceof BatchRequest) && "POST".equals(request.getMethod())
+                && batchPath.equals(urlPathHelper.getLookupPathForRequest(request)))
+        {
+            serveBatch(request, response);
+            return;
+        }
+        super.doService(request, response);
+    }
+
+    private void serveBatch(HttpServletRequest request, HttpServletResponse response)
+            throws IOException, InterruptedException
+    {
+        JsonNode calls;
+        try
+        {
+            calls = objectMapper.readTree(request.getInputStream());
+        } catch(JsonProcessingException e)
+        {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Malformed batch: " + e.getOriginalMessage());
+            return;
+        }
+        if(calls == null || !calls.isArray())
+        {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "A batch is a JSON array of calls!");
+            return;
+        }
+        int count = calls.size();
+        if(count > maxBatchSize)
+        {
+            response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, String.format("At most %d calls per batch!", maxBatchSize));
+            return;
+        }
+        BatchRequest.Snapshot snapshot = new BatchRequest.Snapshot(request);
+        Result[] results = new Result[count];
+        AtomicInteger next = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(count);
+        Runnable worker = () ->
+        {
+            for(int i = next.getAndIncrement(); i < count; i = next.getAndIncrement())
+            {
+                try
+                {
+                    results[i] = call(snapshot, response, calls.get(i));
+                } finally
+                {
+                    done.countDown();
+                }
+            }
+        };
+        // Helpers which only start once all calls are taken return right away, nobody waits for them.
+        for(int i = 1; i < Math.min(batchParallelism, count); i++)
+        {
+            try
+            {
+                executor.execute(worker);
+            } catch(RejectedExecutionException e)
+            {
+                break;
+            }
+        }
+        worker.run();
+        done.await();
+        response.setContentType(BATCH_CONTENT_TYPE);
+        try(JsonGenerator generator = objectMapper.getFactory().createGenerator(response.getOutputStream()))
+        {
+            generator.writeStartArray();
+            for(Result result : results)
+            {
+                result.write(generator);
+            }
+            generator.writeEndArray();
+        }
+    }
+
+    private Result call(BatchRequest.Snapshot snapshot, HttpServletResponse response, JsonNode call)
+    {
+        String target = call.path("path").asText("");
+        int index = target.indexOf('?');
+        String path = index < 0 ? target : target.substring(0, index);
+        if(!path.startsWith("/") || path.equals(batchPath))
+        {
+            return new Result(target, HttpServletResponse.SC_BAD_REQUEST, null, null);
+        }
+        BatchResponse callResponse = new BatchResponse(response);
+        try
+        {
+            Map<String, String[]> parameters = new LinkedHashMap<>();
+            StringBuilder query = new StringBuilder(index < 0 ? "" : target.substring(index + 1));
+            parseQuery(query, parameters);
+            for(Iterator<Map.Entry<String, JsonNode>> fields = call.path("params").fields(); fields.hasNext(); )
+            {
+                Map.Entry<String, JsonNode> field = fields.next();
+                List<String> values = new ArrayList<>();
+                if(field.getValue().isArray())
+                {
+                    field.getValue().forEach(value -> values.add(value.asText()));
+                } else
+                {
+                    values.add(field.getValue().asText());
+                }
+                for(String value : values)
+                {
+                    addParameter(parameters, field.getKey(), value);
+                    query.append(query.length() == 0 ? "" : "&").append(encode(field.getKey())).append('=').append(encode(value));
+                }
+            }
+            String accept = call.path("accept").asText(MediaType.ALL_VALUE);
+            BatchRequest callRequest = new BatchRequest(snapshot, path, query.length() == 0 ? null : query.toString(), parameters, accept);
+            // Other handlers(the default servlet, resources) forward to the container, which would dispatch the batch's own request.
+            HandlerExecutionChain chain = getHandler(callRequest);
+            if(chain == null || !(chain.getHandler() instanceof HandlerMethod))
+            {
+                return new Result(target, HttpServletResponse.SC_NOT_FOUND, null, null);
+            }
+            if(!isBatchable((HandlerMethod)chain.getHandler()))
+            {
+                return new Result(target, HttpServletResponse.SC_BAD_REQUEST, null, null);
+            }
+            // Lets ResponseCacheInterceptor fill the cache, as ResponseCacheFilter does for requests of their own.
+            service(callRequest, new CaptureResponseWrapper(callResponse));
+        } catch(Exception e)
+        {
+            LOGGER.log(Level.FINE, "Batched call failed: " + target, e);
+            if(!callResponse.isCommitted())
+            {
+                callResponse.reset();
+            }
+            callResponse.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        }
+        return new Result(target, callResponse.getStatus(), callResponse.getContentType(), callResponse);
+    }
+
+    /**
+     * Whether the handler writes its result as the body, right away: views forward and async results dispatch again, both through the
+     * container's request, which a call does not have.
+     */
+    private static boolean isBatchable(HandlerMethod handler)
+    {
+        MethodParameter returnType = handler.getReturnType();
+        Class<?> type = returnType.getParameterType();
+        if(HttpEntity.class.isAssignableFrom(type))
+        {
+            return !isAsync(ResolvableType.forMethodParameter(returnType).as(HttpEntity.class).resolveGeneric(0));
+        }
+        if(returnType.hasMethodAnnotation(ResponseBody.class) || AnnotatedElementUtils.hasAnnotation(handler.getBeanType(), ResponseBody.class))
+        {
+            return !isAsync(type);
+        }
+        // A void handler writing the response itself.
+        if(type == void.class)
+        {
+            for(MethodParameter parameter : handler.getMethodParameters())
+            {
+                Class<?> parameterType = parameter.getParameterType();
+                if(ServletResponse.class.isAssignableFrom(parameterType) || OutputStream.class.isAssignableFrom(parameterType)
+                        || Writer.class.isAssignableFrom(parameterType))
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isAsync(Class<?> type)
+    {
+        for(Class<?> asyncType : ASYNC_TYPES)
+        {
+            if(type != null && asyncType.isAssignableFrom(type))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void parseQuery(CharSequence query, Map<String, String[]> parameters)
+            throws UnsupportedEncodingException
+    {
+        if(query.length() == 0)
+        {
+            return;
+        }
+        for(String pair : query.toString().split("&"))
+        {
+            int index = pair.indexOf('=');
+            String name = URLDecoder.decode(index < 0 ? pair : pair.substring(0, index), "UTF-8");
+            addParameter(parameters, name, index < 0 ? "" : URLDecoder.decode(pair.substring(index + 1), "UTF-8"));
+        }
+    }
+
+    private static void addParameter(Map<String, String[]> parameters, String name, String value)
+    {
+        String[] values = parameters.get(name);
+        if(values == null)
+        {
+            parameters.put(name, new String[]{value});
+        } else
+        {
+            String[] more = new String[values.length + 1];
+            System.arraycopy(values, 0, more, 0, values.length);
+            more[values.length] = value;
+            parameters.put(name, more);
+        }
+    }
+
+    private static String encode(String value)
+            throws UnsupportedEncodingException
+    {
+        return URLEncoder.encode(value, "UTF-8");
+    }
+
+    private static class Result
+    {
+        private final String path;
+        private final int status;
+        private final String contentType;
+        private final byte[] body;
+        private final Charset charset;
+
+        Result(String path, int status, String contentType, BatchResponse response)
+        {
+            this.path = path;
+            this.status = status;
+            this.contentType = contentType;
+            this.body = response == null ? new byte[0] : response.getBody();
+            Charset charset = StandardCharsets.UTF_8;
+            try
+            {
+                charset = response == null ? charset : Charset.forName(response.getCharacterEncoding());
+            } catch(IllegalArgumentException ignored)
+            {
+            }
+            this.charset = charset;
+        }
+
+        void write(JsonGenerator generator)
+                throws IOException
+        {
+            generator.writeStartObject();
+            generator.writeStringField("path", path);
+            generator.writeNumberField("status", status);
+            if(contentType != null)
+            {
+                generator.writeStringField("contentType", contentType);
+            }
+            if(body.length > 0)
+            {
+                generator.writeFieldName("body");
+                MediaType mediaType = null;
+                try
+                {
+                    mediaType = contentType == null ? null : MediaType.parseMediaType(contentType);
+                } catch(InvalidMediaTypeException ignored)
+                {
+                }
+                if(mediaType != null && ("json".equals(mediaType.getSubtype()) || mediaType.getSubtype().endsWith("+json")))
+                {
+                    generator.writeRawValue(new String(body, charset));
+                } else if(mediaType != null && "text".equals(mediaType.getType()))
+                {
+                    generator.writeString(new String(body, charset));
+                } else
+                {
+                    generator.writeBinary(body);
+                }
+            }
+            generator.writeEndObject();
+        }
+    }
+}
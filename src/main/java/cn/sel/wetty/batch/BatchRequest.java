@@ -0,0 +1,372 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Erlu Shang (sel8616@gmail.com/philshang@163.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package cn.sel.wetty.batch;
+
+import org.springframework.util.LinkedCaseInsensitiveMap;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.DispatcherType;
+import javax.servlet.ReadListener;
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A GET of one call of a batch. It runs on any thread, so nothing which the container parses lazily or which the dispatch changes is taken
+ * from the batch request: the headers, cookies and locales are copied once per batch({@link Snapshot}) and the attributes are its own.
+ * Async processing and forwards are not supported.
+ */
+class BatchRequest extends HttpServletRequestWrapper
+{
+    private final Snapshot snapshot;
+    private final String path;
+    private final String queryString;
+    private final Map<String, String[]> parameters;
+    private final Map<String, List<String>> headers;
+    private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+
+    BatchRequest(Snapshot snapshot, String path, String queryString, Map<String, String[]> parameters, String accept)
+    {
+        super(snapshot.request);
+        this.snapshot = snapshot;
+        this.path = path;
+        this.queryString = queryString;
+        this.parameters = Collections.unmodifiableMap(parameters);
+        this.headers = new LinkedCaseInsensitiveMap<>(snapshot.headers.size() + 1, Locale.ENGLISH);
+        this.headers.putAll(snapshot.headers);
+        this.headers.put("Accept", Collections.singletonList(accept));
+    }
+
+    //region Request line & parameters
+    @Override
+    public String getMethod()
+    {
+        return "GET";
+    }
+
+    @Override
+    public String getRequestURI()
+    {
+        return snapshot.contextPath + snapshot.servletPath + path;
+    }
+
+    @Override
+    public StringBuffer getRequestURL()
+    {
+        return new StringBuffer(snapshot.origin).append(getRequestURI());
+    }
+
+    @Override
+    public String getServletPath()
+    {
+        return snapshot.servletPath;
+    }
+
+    @Override
+    public String getPathInfo()
+    {
+        return path;
+    }
+
+    @Override
+    public String getQueryString()
+    {
+        return queryString;
+    }
+
+    @Override
+    public String getParameter(String name)
+    {
+        String[] values = parameters.get(name);
+        return values == null || values.length == 0 ? null : values[0];
+    }
+
+    @Override
+    public Map<String, String[]> getParameterMap()
+    {
+        return parameters;
+    }
+
+    @Override
+    public Enumeration<String> getParameterNames()
+    {
+        return Collections.enumeration(parameters.keySet());
+    }
+
+    @Override
+    public String[] getParameterValues(String name)
+    {
+        return parameters.get(name);
+    }
+    //endregion
+
+    //region Headers
+    @Override
+    public String getHeader(String name)
+    {
+        List<String> values = headers.get(name);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
+    @Override
+    public Enumeration<String> getHeaders(String name)
+    {
+        List<String> values = headers.get(name);
+        return Collections.enumeration(values == null ? Collections.<String>emptyList() : values);
+    }
+
+    @Override
+    public Enumeration<String> getHeaderNames()
+    {
+        return Collections.enumeration(headers.keySet());
+    }
+
+    @Override
+    public int getIntHeader(String name)
+    {
+        String value = getHeader(name);
+        return value == null ? -1 : Integer.parseInt(value);
+    }
+
+    @Override
+    public long getDateHeader(String name)
+    {
+        String value = getHeader(name);
+        if(value == null)
+        {
+            return -1;
+        }
+        try
+        {
+            return ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch(DateTimeParseException e)
+        {
+            throw new IllegalArgumentException(String.format("Header %s is not a date -> %s", name, value), e);
+        }
+    }
+
+    @Override
+    public Cookie[] getCookies()
+    {
+        return snapshot.cookies;
+    }
+
+    @Override
+    public Locale getLocale()
+    {
+        return snapshot.locales.get(0);
+    }
+
+    @Override
+    public Enumeration<Locale> getLocales()
+    {
+        return Collections.enumeration(snapshot.locales);
+    }
+    //endregion
+
+    //region Body
+    @Override
+    public String getContentType()
+    {
+        return null;
+    }
+
+    @Override
+    public int getContentLength()
+    {
+        return -1;
+    }
+
+    @Override
+    public long getContentLengthLong()
+    {
+        return -1;
+    }
+
+    @Override
+    public String getCharacterEncoding()
+    {
+        return StandardCharsets.UTF_8.name();
+    }
+
+    @Override
+    public void setCharacterEncoding(String env)
+    {
+    }
+
+    @Override
+    public ServletInputStream getInputStream()
+    {
+        return new ServletInputStream()
+        {
+            @Override
+            public boolean isFinished()
+            {
+                return true;
+            }
+
+            @Override
+            public boolean isReady()
+            {
+                return true;
+            }
+
+            @Override
+            public void setReadListener(ReadListener readListener)
+            {
+                throw new IllegalStateException("Calls of a batch have no body!");
+            }
+
+            @Override
+            public int read()
+            {
+                return -1;
+            }
+        };
+    }
+
+    @Override
+    public BufferedReader getReader()
+    {
+        return new BufferedReader(new StringReader(""));
+    }
+    //endregion
+
+    //region Attributes
+    @Override
+    public Object getAttribute(String name)
+    {
+        return attributes.get(name);
+    }
+
+    @Override
+    public Enumeration<String> getAttributeNames()
+    {
+        return Collections.enumeration(attributes.keySet());
+    }
+
+    @Override
+    public void setAttribute(String name, Object o)
+    {
+        if(o == null)
+        {
+            attributes.remove(name);
+        } else
+        {
+            attributes.put(name, o);
+        }
+    }
+
+    @Override
+    public void removeAttribute(String name)
+    {
+        attributes.remove(name);
+    }
+    //endregion
+
+    //region Dispatching
+    @Override
+    public DispatcherType getDispatcherType()
+    {
+        return DispatcherType.REQUEST;
+    }
+
+    @Override
+    public RequestDispatcher getRequestDispatcher(String path)
+    {
+        return null;
+    }
+
+    @Override
+    public boolean isAsyncSupported()
+    {
+        return false;
+    }
+
+    @Override
+    public boolean isAsyncStarted()
+    {
+        return false;
+    }
+
+    @Override
+    public AsyncContext startAsync()
+    {
+        throw new IllegalStateException("Calls of a batch cannot be async!");
+    }
+
+    @Override
+    public AsyncContext startAsync(ServletRequest servletRequest, ServletResponse servletResponse)
+    {
+        throw new IllegalStateException("Calls of a batch cannot be async!");
+    }
+    //endregion
+
+    /**
+     * What the calls of one batch take from the batch request, read on the container thread.
+     */
+    static class Snapshot
+    {
+        private static final Set<String> EXCLUDED_HEADERS = new HashSet<>(Arrays.asList("accept", "content-type", "content-length",
+                "transfer-encoding", "if-match", "if-none-match", "if-modified-since", "if-unmodified-since", "if-range", "range", "expect"));
+        private final HttpServletRequest request;
+        private final String contextPath;
+        private final String servletPath;
+        private final String origin;
+        private final Map<String, List<String>> headers = new LinkedCaseInsensitiveMap<>(Locale.ENGLISH);
+        private final Cookie[] cookies;
+        private final List<Locale> locales;
+
+        Snapshot(HttpServletRequest request)
+        {
+            this.request = request;
+            this.contextPath = request.getContextPath();
+            this.servletPath = request.getServletPath();
+            StringBuffer url = request.getRequestURL();
+            this.origin = url.substring(0, url.length() - request.getRequestURI().length());
+            for(Enumeration<String> names = request.getHeaderNames(); names.hasMoreElements(); )
+            {
+                String name = names.nextElement();
+                if(!EXCLUDED_HEADERS.contains(name.toLowerCase(Locale.ENGLISH)))
+                {
+                    headers.put(name, Collections.list(request.getHeaders(name)));
+                }
+            }
+            this.cookies = request.getCookies();
+            this.locales = Collections.list(request.getLocales());
+        }
+    }
+}
@@ -0,0 +1,374 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Erlu Shang (sel8616@gmail.com/philshang@163.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package cn.sel.wetty.batch;
+
+import org.springframework.util.LinkedCaseInsensitiveMap;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Collects the status, headers and body of one call of a batch; nothing reaches the batch response.
+ */
+class BatchResponse extends HttpServletResponseWrapper
+{
+    private final Map<String, List<String>> headers = new LinkedCaseInsensitiveMap<>(Locale.ENGLISH);
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream(256);
+    private int status = SC_OK;
+    private String contentType;
+    private String characterEncoding = StandardCharsets.UTF_8.name();
+    private boolean committed;
+    private ServletOutputStream outputStream;
+    private PrintWriter writer;
+
+    BatchResponse(HttpServletResponse response)
+    {
+        super(response);
+    }
+
+    byte[] getBody()
+    {
+        if(writer != null)
+        {
+            writer.flush();
+        }
+        return body.toByteArray();
+    }
+
+    //region Status
+    @Override
+    public void setStatus(int sc)
+    {
+        if(!committed)
+        {
+            status = sc;
+        }
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public void setStatus(int sc, String sm)
+    {
+        setStatus(sc);
+    }
+
+    @Override
+    public int getStatus()
+    {
+        return status;
+    }
+
+    @Override
+    public void sendError(int sc, String msg)
+            throws IOException
+    {
+        sendError(sc);
+    }
+
+    @Override
+    public void sendError(int sc)
+            throws IOException
+    {
+        checkCommitted();
+        resetBuffer();
+        status = sc;
+        committed = true;
+    }
+
+    @Override
+    public void sendRedirect(String location)
+            throws IOException
+    {
+        checkCommitted();
+        setHeader("Location", location);
+        status = SC_FOUND;
+        committed = true;
+    }
+    //endregion
+
+    //region Headers
+    @Override
+    public void setHeader(String name, String value)
+    {
+        if(!committed)
+        {
+            List<String> values = new ArrayList<>(1);
+            values.add(value);
+            headers.put(name, values);
+        }
+    }
+
+    @Override
+    public void addHeader(String name, String value)
+    {
+        if(!committed)
+        {
+            List<String> values = headers.get(name);
+            if(values == null)
+            {
+                setHeader(name, value);
+            } else
+            {
+                values.add(value);
+            }
+        }
+    }
+
+    @Override
+    public void setIntHeader(String name, int value)
+    {
+        setHeader(name, String.valueOf(value));
+    }
+
+    @Override
+    public void addIntHeader(String name, int value)
+    {
+        addHeader(name, String.valueOf(value));
+    }
+
+    @Override
+    public void setDateHeader(String name, long date)
+    {
+        setHeader(name, formatDate(date));
+    }
+
+    @Override
+    public void addDateHeader(String name, long date)
+    {
+        addHeader(name, formatDate(date));
+    }
+
+    @Override
+    public boolean containsHeader(String name)
+    {
+        return headers.containsKey(name);
+    }
+
+    @Override
+    public String getHeader(String name)
+    {
+        List<String> values = headers.get(name);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
+    @Override
+    public Collection<String> getHeaders(String name)
+    {
+        List<String> values = headers.get(name);
+        return values == null ? Collections.<String>emptyList() : Collections.unmodifiableList(values);
+    }
+
+    @Override
+    public Collection<String> getHeaderNames()
+    {
+        return Collections.unmodifiableSet(headers.keySet());
+    }
+
+    @Override
+    public void addCookie(Cookie cookie)
+    {
+    }
+
+    @Override
+    public void setContentType(String type)
+    {
+        if(committed || writer != null && type != null && type.contains("charset="))
+        {
+            return;
+        }
+        contentType = type;
+        if(type != null)
+        {
+            int index = type.toLowerCase(Locale.ENGLISH).indexOf("charset=");
+            if(index >= 0)
+            {
+                characterEncoding = type.substring(index + "charset=".length()).trim();
+            }
+        }
+    }
+
+    @Override
+    public String getContentType()
+    {
+        return contentType;
+    }
+
+    @Override
+    public void setCharacterEncoding(String charset)
+    {
+        if(!committed && writer == null && charset != null)
+        {
+            characterEncoding = charset;
+        }
+    }
+
+    @Override
+    public String getCharacterEncoding()
+    {
+        return characterEncoding;
+    }
+
+    @Override
+    public void setContentLength(int len)
+    {
+    }
+
+    @Override
+    public void setContentLengthLong(long len)
+    {
+    }
+
+    @Override
+    public void setLocale(Locale loc)
+    {
+    }
+
+    @Override
+    public Locale getLocale()
+    {
+        return Locale.getDefault();
+    }
+    //endregion
+
+    //region Body
+    @Override
+    public ServletOutputStream getOutputStream()
+    {
+        if(outputStream == null)
+        {
+            outputStream = new ServletOutputStream()
+            {
+                @Override
+                public void write(int b)
+                {
+                    body.write(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len)
+                {
+                    body.write(b, off, len);
+                }
+
+                @Override
+                public boolean isReady()
+                {
+                    return true;
+                }
+
+                @Override
+                public void setWriteListener(WriteListener writeListener)
+                {
+                    throw new IllegalStateException("Calls of a batch cannot be async!");
+                }
+            };
+        }
+        return outputStream;
+    }
+
+    @Override
+    public PrintWriter getWriter()
+            throws IOException
+    {
+        if(writer == null)
+        {
+            writer = new PrintWriter(new OutputStreamWriter(getOutputStream(), characterEncoding));
+        }
+        return writer;
+    }
+
+    @Override
+    public void flushBuffer()
+    {
+        committed = true;
+    }
+
+    @Override
+    public void setBufferSize(int size)
+    {
+    }
+
+    @Override
+    public int getBufferSize()
+    {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public void resetBuffer()
+    {
+        checkCommitted();
+        if(writer != null)
+        {
+            writer.flush();
+        }
+        body.reset();
+    }
+
+    @Override
+    public void reset()
+    {
+        resetBuffer();
+        headers.clear();
+        status = SC_OK;
+        contentType = null;
+    }
+
+    @Override
+    public boolean isCommitted()
+    {
+        return committed;
+    }
+    //endregion
+
+    private void checkCommitted()
+    {
+        if(committed)
+        {
+            throw new IllegalStateException("Response already committed!");
+        }
+    }
+
+    private static String formatDate(long date)
+    {
+        return DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.ofEpochMilli(date).atZone(ZoneOffset.UTC));
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Erlu Shang (sel8616@gmail.com/philshang@163.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package cn.sel.wetty.cache;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+/**
+ * Passes everything through until {@link #capture(int)} is called; from then on the body is held back, up to the limit, and the
+ * Content-Length and flushes are ignored until {@link #finish()} hands the body over. A body growing past the limit, or written with a
+ * WriteListener, is written out and the rest passed through.
+ */
+public class CaptureResponseWrapper extends HttpServletResponseWrapper
+{
+    private ByteArrayOutputStream buffer;
+    private int limit;
+    private ServletOutputStream outputStream;
+    private PrintWriter writer;
+
+    public CaptureResponseWrapper(HttpServletResponse response)
+    {
+        super(response);
+    }
+
+    public void capture(int limit)
+    {
+        this.buffer = new ByteArrayOutputStream(Math.min(limit, 4096));
+        this.limit = limit;
+    }
+
+    /**
+     * Stops capturing.
+     *
+     * @return the body written since {@link #capture(int)}, null if it was too large and has already been written out.
+     */
+    public byte[] finish()
+    {
+        if(writer != null)
+        {
+            writer.flush();
+        }
+        ByteArrayOutputStream captured = buffer;
+        buffer = null;
+        return captured == null ? null : captured.toByteArray();
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream()
+            throws IOException
+    {
+        if(buffer == null && outputStream == null)
+        {
+            return super.getOutputStream();
+        }
+        if(outputStream == null)
+        {
+            outputStream = new CaptureOutputStream();
+        }
+        return outputStream;
+    }
+
+    @Override
+    public PrintWriter getWriter()
+            throws IOException
+    {
+        if(buffer == null && writer == null)
+        {
+            return super.getWriter();
+        }
+        if(writer == null)
+        {
+            writer = new PrintWriter(new OutputStreamWriter(getOutputStream(), getCharacterEncoding()));
+        }
+        return writer;
+    }
+
+    @Override
+    public void setContentLength(int len)
+    {
+        if(buffer == null)
+        {
+            super.setContentLength(len);
+        }
+    }
+
+    @Override
+    public void setContentLengthLong(long len)
+    {
+        if(buffer == null)
+        {
+            super.setContentLengthLong(len);
+        }
+    }
+
+    @Override
+    public void setHeader(String name, String value)
+    {
+        if(buffer == null || !"Content-Length".equalsIgnoreCase(name))
+        {
+            super.setHeader(name, value);
+        }
+    }
+
+    @Override
+    public void addHeader(String name, String value)
+    {
+        if(buffer == null || !"Content-Length".equalsIgnoreCase(name))
+        {
+            super.addHeader(name, value);
+        }
+    }
+
+    @Override
+    public void setIntHeader(String name, int value)
+    {
+        if(buffer == null || !"Content-Length".equalsIgnoreCase(name))
+        {
+            super.setIntHeader(name, value);
+        }
+    }
+
+    @Override
+    public void flushBuffer()
+            throws IOException
+    {
+        if(buffer == null)
+        {
+            super.flushBuffer();
+        }
+    }
+
+    @Override
+    public void resetBuffer()
+    {
+        if(buffer != null)
+        {
+            buffer.reset();
+        }
+        super.resetBuffer();
+    }
+
+    @Override
+    public void reset()
+    {
+        if(buffer != null)
+        {
+            buffer.reset();
+        }
+        super.reset();
+    }
+
+    private class CaptureOutputStream extends ServletOutputStream
+    {
+        @Override
+        public void write(int b)
+                throws IOException
+        {
+            write(new byte[]{(byte)b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len)
+                throws IOException
+        {
+            if(buffer != null && buffer.size() + len > limit)
+            {
+                ServletOutputStream out = getResponse().getOutputStream();
+                buffer.writeTo(out);
+                buffer = null;
+            }
+            if(buffer != null)
+            {
+                buffer.write(b, off, len);
+            } else
+            {
+                getResponse().getOutputStream().write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush()
+                throws IOException
+        {
+            if(buffer == null)
+            {
+                getResponse().getOutputStream().flush();
+            }
+        }
+
+        @Override
+        public boolean isReady()
+        {
+            if(buffer != null)
+            {
+                return true;
+            }
+            try
+            {
+                return getResponse().getOutputStream().isReady();
+            } catch(IOException e)
+            {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * Non-blocking output is not captured: what has been held back is written out and the rest passes through.
+         */
+        @Override
+        public void setWriteListener(WriteListener writeListener)
+        {
+            try
+            {
+                ServletOutputStream out = getResponse().getOutputStream();
+                if(buffer != null)
+                {
+                    if(writer != null)
+                    {
+                        writer.flush();
+                    }
+                    buffer.writeTo(out);
+                    buffer = null;
+                }
+                out.setWriteListener(writeListener);
+            } catch(IOException e)
+            {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
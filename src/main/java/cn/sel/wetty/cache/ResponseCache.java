@@ -0,0 +1,183 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Erlu Shang (sel8616@gmail.com/philshang@163.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package cn.sel.wetty.cache;
+
+import cn.sel.wetty.metrics.RequestMetrics;
+import org.springframework.beans.factory.InitializingBean;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Serialized responses bounded by count and total size, least recently used first out. Expired entries are dropped when they are read.
+ */
+public class ResponseCache implements InitializingBean
+{
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private int maxEntries = 1024;
+    private long maxBytes = 16 * 1024 * 1024;
+    private int maxEntrySize = 256 * 1024;
+    private long bytes;
+    private RequestMetrics metrics;
+
+    public void setMaxEntries(int maxEntries)
+    {
+        this.maxEntries = maxEntries;
+    }
+
+    public void setMaxBytes(long maxBytes)
+    {
+        this.maxBytes = maxBytes;
+    }
+
+    public void setMaxEntrySize(int maxEntrySize)
+    {
+        this.maxEntrySize = maxEntrySize;
+    }
+
+    public void setMetrics(RequestMetrics metrics)
+    {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return the largest body(bytes) that is cached, larger ones are passed through.
+     */
+    public int getMaxEntrySize()
+    {
+        return maxEntrySize;
+    }
+
+    @Override
+    public void afterPropertiesSet()
+    {
+        if(metrics != null)
+        {
+            metrics.register("cache_hits_total", "counter", "Responses served from the response cache.", hits::sum);
+            metrics.register("cache_misses_total", "counter", "Cacheable requests passed to their handler.", misses::sum);
+            metrics.register("cache_evictions_total", "counter", "Responses evicted to stay within the cache bounds.", evictions::sum);
+            metrics.register("cache_entries", "gauge", "Responses in the cache.", this::size);
+            metrics.register("cache_bytes", "gauge", "Size of the cached bodies.", this::getBytes);
+        }
+    }
+
+    /**
+     * @return the fresh entry of the key, null(a miss) if there is none.
+     */
+    public Entry get(String key)
+    {
+        long now = System.currentTimeMillis();
+        Entry entry;
+        synchronized(entries)
+        {
+            entry = entries.get(key);
+            if(entry != null && entry.expires <= now)
+            {
+                entries.remove(key);
+                bytes -= entry.body.length;
+                entry = null;
+            }
+        }
+        if(entry != null)
+        {
+            hits.increment();
+        } else
+        {
+            misses.increment();
+        }
+        return entry;
+    }
+
+    public void put(String key, Entry entry)
+    {
+        if(entry.body.length > maxEntrySize)
+        {
+            return;
+        }
+        synchronized(entries)
+        {
+            Entry previous = entries.put(key, entry);
+            bytes += entry.body.length - (previous == null ? 0 : previous.body.length);
+            Iterator<Entry> iterator = entries.values().iterator();
+            while((entries.size() > maxEntries || bytes > maxBytes) && iterator.hasNext())
+            {
+                Entry eldest = iterator.next();
+                iterator.remove();
+                bytes -= eldest.body.length;
+                evictions.increment();
+            }
+        }
+    }
+
+    public int size()
+    {
+        synchronized(entries)
+        {
+            return entries.size();
+        }
+    }
+
+    public long getBytes()
+    {
+        synchronized(entries)
+        {
+            return bytes;
+        }
+    }
+
+    public static class Entry
+    {
+        private final byte[] body;
+        private final String contentType;
+        private final String etag;
+        private final long expires;
+
+        public Entry(byte[] body, String contentType, String etag, long expires)
+        {
+            this.body = body;
+            this.contentType = contentType;
+            this.etag = etag;
+            this.expires = expires;
+        }
+
+        public byte[] getBody()
+        {
+            return body;
+        }
+
+        public String getContentType()
+        {
+            return contentType;
+        }
+
+        public String getEtag()
+        {
+            return etag;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Erlu Shang (sel8616@gmail.com/philshang@163.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package cn.sel.wetty.cache;
+
+import org.springframework.util.Assert;
+import org.springframework.util.DigestUtils;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.util.WebUtils;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Enumeration;
+
+/**
+ * Serves {@link Cached} handlers from the {@link ResponseCache}: a hit is answered before the handler runs, with 304 if 'If-None-Match'
+ * carries its ETag; a miss runs the handler, captures the body through the {@link ResponseCacheFilter} and caches it with a strong ETag.
+ */
+public class ResponseCacheInterceptor implements HandlerInterceptor
+{
+    private static final String KEY_ATTRIBUTE = ResponseCacheInterceptor.class.getName() + ".key";
+    private final ResponseCache cache;
+
+    public ResponseCacheInterceptor(ResponseCache cache)
+    {
+        Assert.notNull(cache);
+        this.cache = cache;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler)
+            throws Exception
+    {
+        Cached cached = handler instanceof HandlerMethod ? ((HandlerMethod)handler).getMethodAnnotation(Cached.class) : null;
+        String method = request.getMethod();
+        if(cached == null || !("GET".equals(method) || "HEAD".equals(method)))
+        {
+            return true;
+        }
+        String key = getKey(request);
+        ResponseCache.Entry entry = cache.get(key);
+        if(entry != null)
+        {
+            send(request, response, entry.getEtag(), entry.getContentType(), entry.getBody());
+            return false;
+        }
+        CaptureResponseWrapper wrapper = WebUtils.getNativeResponse(response, CaptureResponseWrapper.class);
+        if(wrapper != null)
+        {
+            wrapper.capture(cache.getMaxEntrySize());
+            request.setAttribute(KEY_ATTRIBUTE, key);
+            request.setAttribute(KEY_ATTRIBUTE + ".ttl", cached.ttl());
+        }
+        return true;
+    }
+
+    @Override
+    public void postHandle(HttpServletRequest request, HttpServletResponse response, Object handler, ModelAndView modelAndView)
+            throws Exception
+    {
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex)
+            throws Exception
+    {
+        String key = (String)request.getAttribute(KEY_ATTRIBUTE);
+        CaptureResponseWrapper wrapper = WebUtils.getNativeResponse(response, CaptureResponseWrapper.class);
+        if(key == null || wrapper == null)
+        {
+            return;
+        }
+        request.removeAttribute(KEY_ATTRIBUTE);
+        byte[] body = wrapper.finish();
+        if(body == null)
+        {
+            return;
+        }
+        if(ex == null && response.getStatus() == HttpServletResponse.SC_OK)
+        {
+            String etag = '"' + DigestUtils.md5DigestAsHex(body) + '"';
+            long ttl = (Long)request.getAttribute(KEY_ATTRIBUTE + ".ttl");
+            cache.put(key, new ResponseCache.Entry(body, response.getContentType(), etag, System.currentTimeMillis() + ttl));
+            send(request, response, etag, null, body);
+        } else
+        {
+            response.getOutputStream().write(body);
+        }
+    }
+
+    private static String getKey(HttpServletRequest request)
+    {
+        StringBuilder key = new StringBuilder(request.getRequestURI());
+        String query = request.getQueryString();
+        if(query != null)
+        {
+            key.append('?').append(query);
+        }
+        String accept = request.getHeader("Accept");
+        return key.append('\n').append(accept == null ? "" : accept).toString();
+    }
+
+    private static void send(HttpServletRequest request, HttpServletResponse response, String etag, String contentType, byte[] body)
+            throws IOException
+    {
+        response.setHeader("ETag", etag);
+        response.addHeader("Vary", "Accept");
+        if(matches(request.getHeaders("If-None-Match"), etag))
+        {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        if(contentType != null)
+        {
+            response.setContentType(contentType);
+        }
+        response.setContentLength(body.length);
+        if(!"HEAD".equals(request.getMethod()))
+        {
+            response.getOutputStream().write(body);
+        }
+    }
+
+    /**
+     * 'If-None-Match' compares weakly: W/"x" matches "x".
+     */
+    private static boolean matches(Enumeration<String> ifNoneMatch, String etag)
+    {
+        while(ifNoneMatch != null && ifNoneMatch.hasMoreElements())
+        {
+            for(String tag : ifNoneMatch.nextElement().split(","))
+            {
+                tag = tag.trim();
+                if(tag.equals("*") || tag.equals(etag) || tag.startsWith("W/") && tag.substring(2).equals(etag))
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Erlu Shang (sel8616@gmail.com/philshang@163.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package cn.sel.wetty.config;
+
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.beans.factory.support.BeanDefinitionRegistry;
+import org.springframework.beans.factory.support.BeanDefinitionRegistryPostProcessor;
+import org.springframework.context.annotation.AnnotatedBeanDefinitionReader;
+import org.springframework.context.annotation.ClassPathBeanDefinitionScanner;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.util.ClassUtils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Logger;
+
+/**
+ * Registers the components listed in the build-time index(META-INF/wetty.components) instead of scanning the classpath.
+ * Falls back to scanning the base package when no index is found.
+ */
+public class IndexedComponentRegistrar implements BeanDefinitionRegistryPostProcessor
+{
+    private static final Logger LOGGER = Logger.getAnonymousLogger();
+    private static final String INDEX_LOCATION = "classpath*:META-INF/wetty.components";
+    private String basePackage;
+
+    public void setBasePackage(String basePackage)
+    {
+        this.basePackage = basePackage;
+    }
+
+    @Override
+    public void postProcessBeanDefinitionRegistry(BeanDefinitionRegistry registry)
+            throws BeansException
+    {
+        try
+        {
+            ClassLoader classLoader = ClassUtils.getDefaultClassLoader();
+            Resource[] resources = new PathMatchingResourcePatternResolver(classLoader).getResources(INDEX_LOCATION);
+            if(resources.length > 0)
+            {
+                AnnotatedBeanDefinitionReader reader = new AnnotatedBeanDefinitionReader(registry);
+                int count = 0;
+                for(Resource resource : resources)
+                {
+                    try(BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(resource.getInputStream(), StandardCharsets.UTF_8)))
+                    {
+                        String line = bufferedReader.readLine();
+                        while(line != null)
+                        {
+                            String className = line.trim();
+                            if(!className.isEmpty() && !className.startsWith("#"))
+                            {
+                                reader.registerBean(ClassUtils.forName(className, classLoader));
+                                count++;
+                            }
+                            line = bufferedReader.readLine();
+                        }
+                    }
+                }
+                LOGGER.info(String.format("%d components registered from index.", count));
+            } else
+            {
+                LOGGER.warning(String.format("No component index found. Scanning '%s'...", basePackage));
+                new ClassPathBeanDefinitionScanner(registry).scan(basePackage);
+            }
+        } catch(IOException | ClassNotFoundException e)
+        {
+            throw new IllegalStateException("Failed to load component index!", e);
+        }
+    }
+
+    @Override
+    public void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory)
+            throws BeansException
+    {
+    }
+}
@@ -23,26 +23,47 @@
  */
 package cn.sel.wetty.controller;
 
+import cn.sel.wetty.async.AsyncTimeoutInterceptor;
+import cn.sel.wetty.cache.Cached;
+import cn.sel.wetty.converter.NdjsonResponseBody;
+import cn.sel.wetty.entity.TestEntity;
 import cn.sel.wetty.service.TestService;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.util.Assert;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 @Controller
 public class TestController
 {
     private final TestService service;
+    private final ObjectMapper objectMapper;
 
     @Autowired
-    public TestController(TestService service)
+    public TestController(TestService service, ObjectMapper objectMapper)
     {
         Assert.notNull(service);
+        Assert.notNull(objectMapper);
         this.service = service;
+        this.objectMapper = objectMapper;
     }
 
     @RequestMapping(path = "home")
@@ -52,6 +73,7 @@ public class TestController
     }
 
     @ResponseBody
+    @Cached(ttl = 60000)
     @RequestMapping(path = "msg", produces = "text/plain;charset=UTF-8")
     public String msg(HttpServletRequest request, HttpServletResponse response)
     {
@@ -59,9 +81,71 @@ public class TestController
     }
 
     @ResponseBody
+    @Cached(ttl = 1000)
     @RequestMapping(path = "obj")
     public Object obj(HttpServletRequest request, HttpServletResponse response)
     {
         return service.getObject();
     }
+
+    @ResponseBody
+    @RequestMapping(path = "echo", method = RequestMethod.POST)
+    public TestEntity echo(@RequestBody TestEntity entity)
+    {
+        return entity;
+    }
+
+    @ResponseBody
+    @RequestMapping(path = "async/msg", produces = "text/plain;charset=UTF-8")
+    public DeferredResult<String> asyncMsg()
+    {
+        DeferredResult<String> result = new DeferredResult<>();
+        service.getMessageAsync().whenComplete((message, e) ->
+        {
+            if(e == null)
+            {
+                result.setResult(message);
+            } else
+            {
+                result.setErrorResult(e);
+            }
+        });
+        return result;
+    }
+
+    @ResponseBody
+    @RequestMapping(path = "async/obj")
+    public CompletableFuture<TestEntity> asyncObj()
+    {
+        return service.getObjectAsync();
+    }
+
+    @ResponseBody
+    @RequestMapping(path = "async/objs")
+    public CompletableFuture<List<TestEntity>> asyncObjs(@RequestParam(name = "count", defaultValue = "1000") int count)
+    {
+        return service.getObjectsAsync(Math.min(count, 100000));
+    }
+
+    /**
+     * Up to ten million objects as newline-delimited JSON, written on the stream executor while they are created.
+     */
+    @RequestMapping(path = "stream/objs", method = RequestMethod.GET)
+    public ResponseEntity<StreamingResponseBody> streamObjs(HttpServletRequest request,
+                                                            @RequestParam(name = "count", defaultValue = "1000") int count)
+    {
+        AsyncTimeoutInterceptor.setTimeout(request, TimeUnit.MINUTES.toMillis(10));
+        return ResponseEntity.ok()
+                .contentType(NdjsonResponseBody.APPLICATION_NDJSON)
+                .body(new NdjsonResponseBody<>(objectMapper, TestEntity.class, service.streamObjects(Math.min(Math.max(0, count), 10000000))));
+    }
+
+    /**
+     * All stream threads are busy.
+     */
+    @ExceptionHandler(TaskRejectedException.class)
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    public void rejected()
+    {
+    }
 }
\ No newline at end of file
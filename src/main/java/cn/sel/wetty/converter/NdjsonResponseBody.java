@@ -0,0 +1,92 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Erlu Shang (sel8616@gmail.com/philshang@163.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package cn.sel.wetty.converter;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.http.MediaType;
+import org.springframework.util.Assert;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * Writes the elements of a stream as newline-delimited JSON while the stream is consumed, through one generator and one ObjectWriter.
+ * Memory stays flat whatever the number of elements: the output goes to the response in chunks, and a client reading slowly blocks the
+ * writes and with them the production of further elements.
+ */
+public class NdjsonResponseBody<T> implements StreamingResponseBody
+{
+    public static final MediaType APPLICATION_NDJSON = new MediaType("application", "x-ndjson");
+    /**
+     * Elements written between two flushes, on top of the flushes of full buffers.
+     */
+    private static final int FLUSH_INTERVAL = 256;
+    private final ObjectMapper objectMapper;
+    private final Class<T> type;
+    private final Stream<? extends T> stream;
+
+    public NdjsonResponseBody(ObjectMapper objectMapper, Class<T> type, Stream<? extends T> stream)
+    {
+        Assert.notNull(objectMapper);
+        Assert.notNull(type);
+        Assert.notNull(stream);
+        this.objectMapper = objectMapper;
+        this.type = type;
+        this.stream = stream;
+    }
+
+    @Override
+    public void writeTo(OutputStream outputStream)
+            throws IOException
+    {
+        // Without FLUSH_AFTER_WRITE_VALUE every element would be a write to the network.
+        ObjectWriter writer = objectMapper.writerFor(type).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE).withRootValueSeparator("\n");
+        try(Stream<? extends T> elements = stream;
+            JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream, JsonEncoding.UTF8))
+        {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            Iterator<? extends T> iterator = elements.iterator();
+            int count = 0;
+            while(iterator.hasNext())
+            {
+                writer.writeValue(generator, iterator.next());
+                if(++count % FLUSH_INTERVAL == 0)
+                {
+                    generator.flush();
+                }
+            }
+            if(count > 0)
+            {
+                generator.writeRaw('\n');
+            }
+        }
+    }
+}
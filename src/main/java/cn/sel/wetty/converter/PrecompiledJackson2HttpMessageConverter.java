@@ -0,0 +1,109 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Erlu Shang (sel8616@gmail.com/philshang@163.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package cn.sel.wetty.converter;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.module.afterburner.AfterburnerModule;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+
+/**
+ * Writes each response with an ObjectWriter built once per type, its root serializer resolved in advance, straight to the response stream.
+ * The generator is closed(not the stream) so that its buffers go back to Jackson's per-thread recycler instead of being allocated anew for
+ * every response. Values with a view or filters and containers(whose element types are only known from the declared type) take the generic
+ * path of the superclass.
+ */
+public class PrecompiledJackson2HttpMessageConverter extends MappingJackson2HttpMessageConverter
+{
+    private final ObjectWriterCache writers = new ObjectWriterCache();
+    private boolean afterburner;
+    private ObjectMapper sourceMapper;
+
+    /**
+     * Generates bytecode for the property accessors of the serialized types instead of calling them reflectively. The module is registered
+     * on a copy of the mapper, so that a mapper shared with other components(e.g. the 'objectMapper' bean) is left as it is.
+     */
+    public void setAfterburner(boolean afterburner)
+    {
+        if(afterburner != this.afterburner)
+        {
+            this.afterburner = afterburner;
+            setObjectMapper(sourceMapper == null ? objectMapper : sourceMapper);
+        }
+    }
+
+    public boolean isAfterburner()
+    {
+        return afterburner;
+    }
+
+    @Override
+    public void setObjectMapper(ObjectMapper objectMapper)
+    {
+        sourceMapper = objectMapper;
+        super.setObjectMapper(afterburner ? objectMapper.copy().registerModule(new AfterburnerModule()) : objectMapper);
+        writers.clear();
+    }
+
+    @Override
+    public void setPrettyPrint(boolean prettyPrint)
+    {
+        super.setPrettyPrint(prettyPrint);
+        writers.clear();
+    }
+
+    @Override
+    protected void writeInternal(Object object, Type type, HttpOutputMessage outputMessage)
+            throws IOException, HttpMessageNotWritableException
+    {
+        ObjectWriter writer = writers.get(objectMapper, object);
+        if(writer == null)
+        {
+            super.writeInternal(object, type, outputMessage);
+            return;
+        }
+        JsonEncoding encoding = getJsonEncoding(outputMessage.getHeaders().getContentType());
+        JsonGenerator generator = objectMapper.getFactory().createGenerator(outputMessage.getBody(), encoding);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        try
+        {
+            writePrefix(generator, object);
+            writer.writeValue(generator, object);
+            writeSuffix(generator, object);
+        } catch(IOException e)
+        {
+            throw new HttpMessageNotWritableException("Could not write JSON: " + e.getMessage(), e);
+        } finally
+        {
+            generator.close();
+        }
+    }
+}
@@ -23,27 +23,203 @@
  */
 package cn.sel.wetty.interceptor;
 
+import cn.sel.wetty.metrics.RequestMetrics;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.PathMatcher;
+import org.springframework.web.context.ServletContextAware;
 import org.springframework.web.servlet.HandlerInterceptor;
 import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.util.UrlPathHelper;
 
+import javax.servlet.DispatcherType;
+import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Enumeration;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
-public class AccessLogger implements HandlerInterceptor
+/**
+ * Logs every request handled by the dispatcher.
+ * <ul>
+ * <li>mode 'verbose'(default): logs the request and the response with all headers and parameters through java.util.logging.</li>
+ * <li>mode 'async': one line per request, written by {@link AsyncAccessLog} to a rotating file; only the allowlisted headers and parameters are captured.</li>
+ * </ul>
+ * Which requests are logged is decided when they complete:
+ * <ul>
+ * <li>'excludes': paths(Ant patterns, as in mvc:mapping) that are never logged, e.g. health probes.</li>
+ * <li>failed requests(status &gt;= 'errorStatus' or an exception) and requests slower than 'slowThreshold' ms are always logged.</li>
+ * <li>'sampling': pattern to rate(0.0-1.0) for the other requests; the first matching pattern wins, 'sampleRate' applies to the rest.</li>
+ * </ul>
+ * Every request, logged or not, is recorded in the {@link RequestMetrics} if one is set.
+ */
+public class AccessLogger implements HandlerInterceptor, InitializingBean, DisposableBean, ServletContextAware
 {
     private static final Logger LOGGER = Logger.getAnonymousLogger();
+    private static final String START_ATTRIBUTE = AccessLogger.class.getName() + ".start";
+    private static final int MAX_CACHED_PATHS = 4096;
+    private static final Double EXCLUDED = -1d;
+    private final PathMatcher pathMatcher = new AntPathMatcher();
+    private final UrlPathHelper urlPathHelper = new UrlPathHelper();
+    private final Map<String, Double> rateCache = new ConcurrentHashMap<>();
+    private String mode = "verbose";
+    private String file = "logs/access-{pid}-{context}.log";
+    private int bufferSize = 8192;
+    private String[] headers = new String[0];
+    private String[] parameters = new String[0];
+    private long maxFileSize = 64 * 1024 * 1024;
+    private int maxFiles = 5;
+    private String[] excludes = new String[0];
+    private Map<String, Double> sampling = new LinkedHashMap<>();
+    private double sampleRate = 1;
+    private long slowThreshold = 1000;
+    private int errorStatus = 500;
+    private RequestMetrics metrics;
+    private AsyncAccessLog asyncLog;
+    private String contextPath = "";
+    private long slowThresholdNanos = TimeUnit.MILLISECONDS.toNanos(slowThreshold);
+
+    public void setMode(String mode)
+    {
+        this.mode = mode;
+    }
+
+    /**
+     * May contain '{pid}' and '{context}'(the context path, 'ROOT' for the root context), so that the processes and web contexts sharing a
+     * working directory each write and rotate a file of their own.
+     */
+    public void setFile(String file)
+    {
+        this.file = file;
+    }
+
+    public void setBufferSize(int bufferSize)
+    {
+        this.bufferSize = bufferSize;
+    }
+
+    public void setHeaders(String[] headers)
+    {
+        this.headers = headers;
+    }
+
+    public void setParameters(String[] parameters)
+    {
+        this.parameters = parameters;
+    }
+
+    public void setMaxFileSize(long maxFileSize)
+    {
+        this.maxFileSize = maxFileSize;
+    }
+
+    public void setMaxFiles(int maxFiles)
+    {
+        this.maxFiles = maxFiles;
+    }
+
+    public void setExcludes(String[] excludes)
+    {
+        this.excludes = excludes;
+    }
+
+    public void setSampling(Map<String, Double> sampling)
+    {
+        this.sampling = sampling;
+    }
+
+    public void setSampleRate(double sampleRate)
+    {
+        this.sampleRate = sampleRate;
+    }
+
+    public void setSlowThreshold(long slowThreshold)
+    {
+        this.slowThreshold = slowThreshold;
+    }
+
+    public void setErrorStatus(int errorStatus)
+    {
+        this.errorStatus = errorStatus;
+    }
+
+    public void setMetrics(RequestMetrics metrics)
+    {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return the number of records dropped because the async buffer was full.
+     */
+    public long getDropped()
+    {
+        return asyncLog == null ? 0 : asyncLog.getDropped();
+    }
+
+    @Override
+    public void afterPropertiesSet()
+            throws Exception
+    {
+        slowThresholdNanos = TimeUnit.MILLISECONDS.toNanos(slowThreshold);
+        switch(mode)
+        {
+            case "verbose":
+                break;
+            case "async":
+                asyncLog = new AsyncAccessLog(Paths.get(getFileName()), bufferSize, headers, parameters, maxFileSize, maxFiles);
+                break;
+            default:
+                throw new IllegalArgumentException(String.format("Unknown access log mode '%s'!", mode));
+        }
+    }
+
+    @Override
+    public void setServletContext(ServletContext servletContext)
+    {
+        contextPath = servletContext.getContextPath();
+    }
+
+    private String getFileName()
+    {
+        String pid = ManagementFactory.getRuntimeMXBean().getName().split("@")[0];
+        String context = contextPath.isEmpty() ? "ROOT" : contextPath.substring(1).replace('/', '_');
+        return file.replace("{pid}", pid).replace("{context}", context);
+    }
+
+    @Override
+    public void destroy()
+    {
+        if(asyncLog != null)
+        {
+            asyncLog.close();
+        }
+    }
 
     @Override
     public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler)
             throws Exception
     {
-        i(request);
+        //An async dispatch continues the request started by the first one.
+        if(!isForward(request) && request.getAttribute(START_ATTRIBUTE) == null)
+        {
+            request.setAttribute(START_ATTRIBUTE, System.nanoTime());
+            if(metrics != null)
+            {
+                metrics.begin(handler);
+            }
+        }
         return true;
     }
 
@@ -57,24 +233,115 @@ public class AccessLogger implements HandlerInterceptor
     public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex)
             throws Exception
     {
-        o(request, response);
+        if(isForward(request))
+        {
+            return;
+        }
+        Object start = request.getAttribute(START_ATTRIBUTE);
+        long duration = start instanceof Long ? System.nanoTime() - (Long)start : 0;
+        //An exception that reaches this point is answered with 500 by the container.
+        int status = ex != null ? 500 : response.getStatus();
+        if(metrics != null)
+        {
+            metrics.end(handler, status, duration, ex != null);
+        }
+        if(shouldLog(request, status, duration, ex))
+        {
+            if(asyncLog != null)
+            {
+                asyncLog.log(request, status, duration);
+            } else
+            {
+                i(request);
+                o(request, response);
+            }
+        }
+    }
+
+    /**
+     * Forwards/includes(e.g. to a view) pass through the interceptor again; the request is logged once by its own dispatch.
+     */
+    private static boolean isForward(HttpServletRequest request)
+    {
+        DispatcherType type = request.getDispatcherType();
+        return type == DispatcherType.FORWARD || type == DispatcherType.INCLUDE;
+    }
+
+    //region Policy
+    private boolean shouldLog(HttpServletRequest request, int status, long duration, Exception ex)
+    {
+        double rate = getRate(urlPathHelper.getLookupPathForRequest(request));
+        if(rate < 0)
+        {
+            return false;
+        }
+        if(ex != null || status >= errorStatus || duration >= slowThresholdNanos || rate >= 1)
+        {
+            return true;
+        }
+        return rate > 0 && ThreadLocalRandom.current().nextDouble() < rate;
     }
 
+    /**
+     * @return the sampling rate of the path, or a negative value if it is excluded.
+     */
+    private double getRate(String path)
+    {
+        Double rate = rateCache.get(path);
+        if(rate == null)
+        {
+            rate = resolveRate(path);
+            if(rateCache.size() < MAX_CACHED_PATHS)
+            {
+                rateCache.put(path, rate);
+            }
+        }
+        return rate;
+    }
+
+    private Double resolveRate(String path)
+    {
+        for(String exclude : excludes)
+        {
+            if(pathMatcher.match(exclude, path))
+            {
+                return EXCLUDED;
+            }
+        }
+        for(Map.Entry<String, Double> entry : sampling.entrySet())
+        {
+            if(pathMatcher.match(entry.getKey(), path))
+            {
+                return entry.getValue();
+            }
+        }
+        return sampleRate;
+    }
+    //endregion
+
     private void i(HttpServletRequest request)
     {
-        String msg = String.format("%s -> %s\t[%s]\tHeaders:%s\tParameters:%s", request.getRemoteAddr(), request.getRequestURI(), request.getMethod(),
-                getHeaders(request), request.getParameterMap());
-        LOGGER.info(msg);
+        LOGGER.info(formatRequest(request));
     }
 
     private void o(HttpServletRequest request, HttpServletResponse response)
     {
-        String msg = String.format("%s\t[%s] -> %s \tStatus:%s\tHeaders:%s", request.getRequestURI(), request.getMethod(), request.getRemoteAddr(),
+        LOGGER.info(formatResponse(request, response));
+    }
+
+    String formatRequest(HttpServletRequest request)
+    {
+        return String.format("%s -> %s\t[%s]\tHeaders:%s\tParameters:%s", request.getRemoteAddr(), request.getRequestURI(), request.getMethod(),
+                getHeaders(request), request.getParameterMap());
+    }
+
+    String formatResponse(HttpServletRequest request, HttpServletResponse response)
+    {
+        return String.format("%s\t[%s] -> %s \tStatus:%s\tHeaders:%s", request.getRequestURI(), request.getMethod(), request.getRemoteAddr(),
                 response.getStatus(), getHeaders(response));
-        LOGGER.info(msg);
     }
 
-    private String getHeaders(HttpServletRequest request)
+    String getHeaders(HttpServletRequest request)
     {
         Enumeration<String> headerNames = request.getHeaderNames();
         List<String> result = new ArrayList<>();
@@ -86,7 +353,7 @@ public class AccessLogger implements HandlerInterceptor
         return Arrays.toString(result.toArray());
     }
 
-    private String getHeaders(HttpServletResponse response)
+    String getHeaders(HttpServletResponse response)
     {
         List<String> headers = response.getHeaderNames().stream().collect(Collectors.toList());
         for(int i = 0; i < headers.size(); i++)
@@ -0,0 +1,428 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Erlu Shang (sel8616@gmail.com/philshang@163.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package cn.sel.wetty.interceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * An access log that never blocks the request thread.
+ * Records are captured into preallocated slots of a ring buffer and written by a background thread in batches to a size-rotated file.
+ * When the buffer is full the record is dropped and counted; the count is written to the log once there is room again.
+ */
+public class AsyncAccessLog implements Closeable
+{
+    private static final Logger LOGGER = Logger.getAnonymousLogger();
+    private static final long IDLE_PARK_NANOS = 1_000_000;
+    private static final int BATCH_SIZE = 256;
+    private static final Set<Path> OPEN_FILES = ConcurrentHashMap.newKeySet();
+    private final Slot[] slots;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+    private final String[] headers;
+    private final String[] parameters;
+    private final Path file;
+    private final long maxFileSize;
+    private final int maxFiles;
+    private final Thread writer;
+    private volatile boolean running = true;
+    //region Writer thread state
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+    private final StringBuilder line = new StringBuilder(512);
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.");
+    private FileChannel channel;
+    private long fileSize;
+    private long lastSecond = -1;
+    private String secondPrefix;
+    private long droppedReported;
+    //endregion
+
+    /**
+     * @param capacity  the number of slots, rounded up to a power of two.
+     * @param headers   the request headers to capture, may be empty.
+     * @param parameters the query parameters to capture, may be empty.
+     */
+    public AsyncAccessLog(Path file, int capacity, String[] headers, String[] parameters, long maxFileSize, int maxFiles)
+            throws IOException
+    {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.slots = new Slot[size];
+        this.mask = size - 1;
+        this.headers = headers;
+        this.parameters = parameters;
+        for(int i = 0; i < size; i++)
+        {
+            slots[i] = new Slot(headers.length);
+        }
+        this.file = file.toAbsolutePath().normalize();
+        this.maxFileSize = maxFileSize;
+        this.maxFiles = Math.max(1, maxFiles);
+        // Rotation renames the file, which would pull it away from under another writer.
+        if(!OPEN_FILES.add(this.file))
+        {
+            throw new IllegalStateException(String.format("Access log %s is already written by another context!", this.file));
+        }
+        try
+        {
+            Path dir = this.file.getParent();
+            if(dir != null)
+            {
+                Files.createDirectories(dir);
+            }
+            openFile();
+        } catch(IOException | RuntimeException e)
+        {
+            OPEN_FILES.remove(this.file);
+            throw e;
+        }
+        writer = new Thread(this::run, "AccessLog-Writer");
+        writer.setDaemon(true);
+        writer.start();
+        LOGGER.info(String.format("Access log: %s (%d slots)", this.file, size));
+    }
+
+    /**
+     * Captures one request. Called on the request thread; does not block and does not parse the request body.
+     *
+     * @return false if the buffer was full and the record was dropped.
+     */
+    public boolean log(HttpServletRequest request, int status, long durationNanos)
+    {
+        long seq;
+        do
+        {
+            seq = head.get();
+            if(seq - tail.get() >= slots.length)
+            {
+                dropped.increment();
+                return false;
+            }
+        } while(!head.compareAndSet(seq, seq + 1));
+        Slot slot = slots[(int)(seq & mask)];
+        slot.time = System.currentTimeMillis();
+        slot.remoteAddr = request.getRemoteAddr();
+        slot.method = request.getMethod();
+        slot.uri = request.getRequestURI();
+        slot.query = parameters.length > 0 ? request.getQueryString() : null;
+        slot.status = status;
+        slot.duration = durationNanos;
+        for(int i = 0; i < headers.length; i++)
+        {
+            slot.headers[i] = request.getHeader(headers[i]);
+        }
+        slot.published = seq;
+        return true;
+    }
+
+    public long getDropped()
+    {
+        return dropped.sum();
+    }
+
+    /**
+     * Stops the writer after it has written everything captured so far.
+     */
+    @Override
+    public void close()
+    {
+        running = false;
+        LockSupport.unpark(writer);
+        try
+        {
+            writer.join(5000);
+        } catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        OPEN_FILES.remove(file);
+    }
+
+    private void run()
+    {
+        try
+        {
+            while(running || tail.get() != head.get())
+            {
+                if(drain() == 0)
+                {
+                    if(!running)
+                    {
+                        //Claimed but not yet published by a request thread.
+                        Thread.yield();
+                    } else
+                    {
+                        LockSupport.parkNanos(IDLE_PARK_NANOS);
+                    }
+                }
+            }
+            reportDropped();
+            flush();
+        } catch(IOException e)
+        {
+            LOGGER.severe(String.format("Access log stopped: %s", e));
+        } finally
+        {
+            try
+            {
+                channel.close();
+            } catch(IOException ignored)
+            {
+            }
+        }
+    }
+
+    private int drain()
+            throws IOException
+    {
+        long next = tail.get();
+        int count = 0;
+        while(count < BATCH_SIZE)
+        {
+            Slot slot = slots[(int)(next & mask)];
+            if(slot.published != next)
+            {
+                break;
+            }
+            format(slot);
+            slot.clear();
+            next++;
+            tail.lazySet(next);
+            write();
+            count++;
+        }
+        if(count > 0)
+        {
+            reportDropped();
+            flush();
+        }
+        return count;
+    }
+
+    private void reportDropped()
+            throws IOException
+    {
+        long total = dropped.sum();
+        if(total != droppedReported)
+        {
+            line.setLength(0);
+            line.append(timestamp(System.currentTimeMillis())).append("\t# dropped ").append(total - droppedReported).append(" record(s), ").append(total).append(" in total\n");
+            droppedReported = total;
+            write();
+        }
+    }
+
+    private void format(Slot slot)
+    {
+        line.setLength(0);
+        line.append(timestamp(slot.time)).append('\t')
+            .append(slot.remoteAddr).append('\t')
+            .append(slot.method).append('\t')
+            .append(slot.uri).append('\t')
+            .append(slot.status).append('\t');
+        long micros = slot.duration / 1000;
+        line.append(micros / 1000).append('.');
+        long fraction = micros % 1000;
+        if(fraction < 100)
+        {
+            line.append(fraction < 10 ? "00" : "0");
+        }
+        line.append(fraction).append("ms");
+        for(int i = 0; i < headers.length; i++)
+        {
+            if(slot.headers[i] != null)
+            {
+                line.append('\t').append(headers[i]).append('=').append(slot.headers[i]);
+            }
+        }
+        if(slot.query != null)
+        {
+            appendParameters(slot.query);
+        }
+        line.append('\n');
+    }
+
+    private void appendParameters(String query)
+    {
+        int start = 0;
+        while(start < query.length())
+        {
+            int end = query.indexOf('&', start);
+            if(end < 0)
+            {
+                end = query.length();
+            }
+            int eq = query.indexOf('=', start);
+            int nameEnd = eq < 0 || eq > end ? end : eq;
+            for(String parameter : parameters)
+            {
+                if(parameter.length() == nameEnd - start && query.startsWith(parameter, start))
+                {
+                    line.append('\t').append(parameter).append('=');
+                    if(nameEnd < end)
+                    {
+                        String value = query.substring(nameEnd + 1, end);
+                        try
+                        {
+                            line.append(URLDecoder.decode(value, "UTF-8"));
+                        } catch(IllegalArgumentException | IOException e)
+                        {
+                            line.append(value);
+                        }
+                    }
+                    break;
+                }
+            }
+            start = end + 1;
+        }
+    }
+
+    private String timestamp(long time)
+    {
+        long second = time / 1000;
+        if(second != lastSecond)
+        {
+            lastSecond = second;
+            secondPrefix = dateFormat.format(new Date(second * 1000));
+        }
+        long millis = time % 1000;
+        return secondPrefix + (millis < 10 ? "00" : millis < 100 ? "0" : "") + millis;
+    }
+
+    /**
+     * Encodes {@link #line} into the batch buffer, flushing it to the file whenever it fills up.
+     */
+    private void write()
+            throws IOException
+    {
+        CharBuffer chars = CharBuffer.wrap(line);
+        encoder.reset();
+        while(true)
+        {
+            CoderResult result = encoder.encode(chars, buffer, true);
+            if(result.isOverflow())
+            {
+                flush();
+            } else
+            {
+                break;
+            }
+        }
+    }
+
+    private void flush()
+            throws IOException
+    {
+        buffer.flip();
+        while(buffer.hasRemaining())
+        {
+            fileSize += channel.write(buffer);
+        }
+        buffer.clear();
+        if(maxFileSize > 0 && fileSize >= maxFileSize)
+        {
+            rotate();
+        }
+    }
+
+    /**
+     * Shifts access.log to access.log.1, access.log.1 to access.log.2 and so on, keeping at most {@link #maxFiles} old files.
+     */
+    private void rotate()
+            throws IOException
+    {
+        channel.close();
+        String name = file.getFileName().toString();
+        Files.deleteIfExists(file.resolveSibling(name + '.' + maxFiles));
+        for(int i = maxFiles - 1; i > 0; i--)
+        {
+            Path source = file.resolveSibling(name + '.' + i);
+            if(Files.exists(source))
+            {
+                Files.move(source, file.resolveSibling(name + '.' + (i + 1)), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        Files.move(file, file.resolveSibling(name + ".1"), StandardCopyOption.REPLACE_EXISTING);
+        openFile();
+    }
+
+    private void openFile()
+            throws IOException
+    {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        fileSize = channel.size();
+    }
+
+    private static final class Slot
+    {
+        private final String[] headers;
+        private volatile long published = -1;
+        private long time;
+        private String remoteAddr;
+        private String method;
+        private String uri;
+        private String query;
+        private int status;
+        private long duration;
+
+        private Slot(int headerCount)
+        {
+            headers = new String[headerCount];
+        }
+
+        private void clear()
+        {
+            remoteAddr = null;
+            method = null;
+            uri = null;
+            query = null;
+            for(int i = 0; i < headers.length; i++)
+            {
+                headers[i] = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Erlu Shang (sel8616@gmail.com/philshang@163.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package cn.sel.wetty.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free, fixed-size histogram of latencies in microseconds.
+ * Buckets are log-linear: every power of two is split into 32 linear sub-buckets, so a recorded value is off by less than 1/32(~3%).
+ * Values above ~19 hours are counted in the last bucket.
+ */
+public class LatencyHistogram
+{
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int MAX_EXPONENT = 36;
+    private static final long MAX_VALUE = (1L << MAX_EXPONENT) - 1;
+    private static final int BUCKET_COUNT = SUB_COUNT * (MAX_EXPONENT - SUB_BITS + 1);
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public void record(long micros)
+    {
+        long value = Math.min(Math.max(micros, 0), MAX_VALUE);
+        buckets.incrementAndGet(indexOf(value));
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * @return a consistent view of the buckets at this moment; the histogram keeps recording.
+     */
+    public Snapshot snapshot()
+    {
+        long[] counts = new long[BUCKET_COUNT];
+        long total = 0;
+        for(int i = 0; i < BUCKET_COUNT; i++)
+        {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        return new Snapshot(counts, total, sum.sum(), max.get());
+    }
+
+    static int indexOf(long value)
+    {
+        if(value < SUB_COUNT)
+        {
+            return (int)value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return SUB_COUNT * (shift + 1) + (int)(value >>> shift) - SUB_COUNT;
+    }
+
+    /**
+     * @return the highest value counted in the bucket.
+     */
+    static long upperBoundOf(int index)
+    {
+        if(index < SUB_COUNT)
+        {
+            return index;
+        }
+        int shift = index / SUB_COUNT - 1;
+        long sub = index % SUB_COUNT + SUB_COUNT;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    public static class Snapshot
+    {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        private Snapshot(long[] counts, long count, long sum, long max)
+        {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long getCount()
+        {
+            return count;
+        }
+
+        /**
+         * @return the total of all recorded values in microseconds.
+         */
+        public long getSum()
+        {
+            return sum;
+        }
+
+        public long getMax()
+        {
+            return max;
+        }
+
+        /**
+         * @return the values recorded between the earlier snapshot of the same histogram and this one. The max stays the overall max.
+         */
+        public Snapshot since(Snapshot earlier)
+        {
+            long[] delta = new long[counts.length];
+            long total = 0;
+            for(int i = 0; i < counts.length; i++)
+            {
+                delta[i] = counts[i] - earlier.counts[i];
+                total += delta[i];
+            }
+            return new Snapshot(delta, total, sum - earlier.sum, max);
+        }
+
+        /**
+         * @param quantile 0.0-1.0
+         *
+         * @return the value in microseconds at or below which the given fraction of the recorded values fall, 0 if nothing was recorded.
+         */
+        public long getValueAt(double quantile)
+        {
+            if(count == 0)
+            {
+                return 0;
+            }
+            long rank = Math.max(1, (long)Math.ceil(quantile * count));
+            long seen = 0;
+            for(int i = 0; i < counts.length; i++)
+            {
+                seen += counts[i];
+                if(seen >= rank)
+                {
+                    return Math.min(upperBoundOf(i), max);
+                }
+            }
+            return max;
+        }
+    }
+}
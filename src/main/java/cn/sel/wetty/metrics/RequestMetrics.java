@@ -0,0 +1,255 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Erlu Shang (sel8616@gmail.com/philshang@163.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package cn.sel.wetty.metrics;
+
+import org.springframework.web.method.HandlerMethod;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Request counts, in-flight gauges, error counts and latency histograms per handler and status class(2xx, 3xx...).
+ * Recorded by {@link cn.sel.wetty.interceptor.AccessLogger} and written in the Prometheus text format by {@link #write(PrintWriter)},
+ * followed by the values other components register with {@link #register(String, String, String, LongSupplier)}.
+ * The latency quantiles cover a recent window('quantileWindow'), while the counts and sums are totals since startup.
+ */
+public class RequestMetrics
+{
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final String PREFIX = "wetty_http_";
+    private static final int WINDOW_STEPS = 6;
+    private final ConcurrentMap<Object, Endpoint> endpoints = new ConcurrentHashMap<>();
+    private final List<Registered> registered = new CopyOnWriteArrayList<>();
+    private long quantileWindow = 60000;
+
+    /**
+     * The time(ms) the quantiles are computed over, 60s by default. If /metrics is read less often, they cover the time since the previous
+     * read.
+     */
+    public void setQuantileWindow(long quantileWindow)
+    {
+        this.quantileWindow = quantileWindow;
+    }
+
+    /**
+     * Adds a value read on every {@link #write(PrintWriter)}.
+     *
+     * @param name the metric name without the 'wetty_' prefix.
+     * @param type 'counter' or 'gauge'.
+     */
+    public void register(String name, String type, String help, LongSupplier value)
+    {
+        registered.add(new Registered("wetty_" + name, type, help, value));
+    }
+
+    /**
+     * Called when a request reaches its handler.
+     */
+    public void begin(Object handler)
+    {
+        getEndpoint(handler).inFlight.incrementAndGet();
+    }
+
+    /**
+     * Called once the request completed, after {@link #begin(Object)} with the same handler.
+     *
+     * @param failed whether the handler threw an exception.
+     */
+    public void end(Object handler, int status, long durationNanos, boolean failed)
+    {
+        Endpoint endpoint = getEndpoint(handler);
+        endpoint.inFlight.decrementAndGet();
+        if(failed || status >= 500)
+        {
+            endpoint.errors.increment();
+        }
+        endpoint.getWindow(status).histogram.record(durationNanos / 1000);
+    }
+
+    public void write(PrintWriter writer)
+    {
+        List<Endpoint> list = new ArrayList<>(endpoints.values());
+        list.sort(Comparator.comparing(endpoint -> endpoint.name));
+        writer.print("# HELP " + PREFIX + "request_duration_seconds Request latency by handler and status class, quantiles over the recent window.\n");
+        writer.print("# TYPE " + PREFIX + "request_duration_seconds summary\n");
+        List<String> counts = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for(Endpoint endpoint : list)
+        {
+            for(int i = 0; i < endpoint.windows.length(); i++)
+            {
+                Window window = endpoint.windows.get(i);
+                if(window != null)
+                {
+                    LatencyHistogram.Snapshot snapshot = window.histogram.snapshot();
+                    LatencyHistogram.Snapshot recent = window.since(snapshot, now, quantileWindow);
+                    String labels = String.format("handler=\"%s\",status=\"%dxx\"", endpoint.name, i + 1);
+                    for(double quantile : QUANTILES)
+                    {
+                        writer.print(String.format("%srequest_duration_seconds{%s,quantile=\"%s\"} %s\n", PREFIX, labels, quantile, seconds(recent.getValueAt(quantile))));
+                    }
+                    writer.print(String.format("%srequest_duration_seconds_sum{%s} %s\n", PREFIX, labels, seconds(snapshot.getSum())));
+                    writer.print(String.format("%srequest_duration_seconds_count{%s} %d\n", PREFIX, labels, snapshot.getCount()));
+                    counts.add(String.format("%srequests_total{%s} %d\n", PREFIX, labels, snapshot.getCount()));
+                }
+            }
+        }
+        writer.print("# HELP " + PREFIX + "requests_total Completed requests by handler and status class.\n");
+        writer.print("# TYPE " + PREFIX + "requests_total counter\n");
+        counts.forEach(writer::print);
+        writer.print("# HELP " + PREFIX + "requests_in_flight Requests being handled.\n");
+        writer.print("# TYPE " + PREFIX + "requests_in_flight gauge\n");
+        for(Endpoint endpoint : list)
+        {
+            writer.print(String.format("%srequests_in_flight{handler=\"%s\"} %d\n", PREFIX, endpoint.name, endpoint.inFlight.get()));
+        }
+        writer.print("# HELP " + PREFIX + "errors_total Requests that failed with an exception or a 5xx status.\n");
+        writer.print("# TYPE " + PREFIX + "errors_total counter\n");
+        for(Endpoint endpoint : list)
+        {
+            writer.print(String.format("%serrors_total{handler=\"%s\"} %d\n", PREFIX, endpoint.name, endpoint.errors.sum()));
+        }
+        for(Registered metric : registered)
+        {
+            writer.print(String.format("# HELP %s %s\n# TYPE %s %s\n%s %d\n", metric.name, metric.help, metric.name, metric.type, metric.name, metric.value.getAsLong()));
+        }
+        writer.flush();
+    }
+
+    private Endpoint getEndpoint(Object handler)
+    {
+        //HandlerMethods are recreated per request with the bean resolved; their Method is not.
+        Object key = handler instanceof HandlerMethod ? ((HandlerMethod)handler).getMethod() : handler.getClass();
+        Endpoint endpoint = endpoints.get(key);
+        return endpoint != null ? endpoint : endpoints.computeIfAbsent(key, k -> new Endpoint(getName(handler)));
+    }
+
+    private static String getName(Object handler)
+    {
+        if(handler instanceof HandlerMethod)
+        {
+            HandlerMethod method = (HandlerMethod)handler;
+            return method.getBeanType().getSimpleName() + '.' + method.getMethod().getName();
+        }
+        return handler.getClass().getSimpleName();
+    }
+
+    private static String seconds(long micros)
+    {
+        return Double.toString(micros / 1e6);
+    }
+
+    private static final class Endpoint
+    {
+        private final String name;
+        private final AtomicLong inFlight = new AtomicLong();
+        private final LongAdder errors = new LongAdder();
+        private final AtomicReferenceArray<Window> windows = new AtomicReferenceArray<>(5);
+
+        private Endpoint(String name)
+        {
+            this.name = name;
+        }
+
+        private Window getWindow(int status)
+        {
+            int index = Math.min(Math.max(status / 100, 1), 5) - 1;
+            Window window = windows.get(index);
+            if(window == null)
+            {
+                windows.compareAndSet(index, null, new Window());
+                window = windows.get(index);
+            }
+            return window;
+        }
+    }
+
+    /**
+     * A cumulative histogram with the snapshots taken by the latest reads, one per window step, as the baselines of the recent values.
+     */
+    private static final class Window
+    {
+        private final LatencyHistogram histogram = new LatencyHistogram();
+        private final List<Baseline> baselines = new ArrayList<>();
+
+        private Window()
+        {
+            baselines.add(new Baseline(System.currentTimeMillis(), histogram.snapshot()));
+        }
+
+        /**
+         * @return the values recorded since the newest baseline that is at least 'window' ms old, or else since the oldest one.
+         */
+        private synchronized LatencyHistogram.Snapshot since(LatencyHistogram.Snapshot current, long now, long window)
+        {
+            while(baselines.size() > 1 && baselines.get(1).time <= now - window)
+            {
+                baselines.remove(0);
+            }
+            LatencyHistogram.Snapshot recent = current.since(baselines.get(0).snapshot);
+            if(now - baselines.get(baselines.size() - 1).time >= window / WINDOW_STEPS)
+            {
+                baselines.add(new Baseline(now, current));
+            }
+            return recent;
+        }
+    }
+
+    private static final class Baseline
+    {
+        private final long time;
+        private final LatencyHistogram.Snapshot snapshot;
+
+        private Baseline(long time, LatencyHistogram.Snapshot snapshot)
+        {
+            this.time = time;
+            this.snapshot = snapshot;
+        }
+    }
+
+    private static final class Registered
+    {
+        private final String name;
+        private final String type;
+        private final String help;
+        private final LongSupplier value;
+
+        private Registered(String name, String type, String help, LongSupplier value)
+        {
+            this.name = name;
+            this.type = type;
+            this.help = help;
+            this.value = value;
+        }
+    }
+}
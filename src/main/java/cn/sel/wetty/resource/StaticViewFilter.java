@@ -0,0 +1,79 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Erlu Shang (sel8616@gmail.com/philshang@163.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package cn.sel.wetty.resource;
+
+import org.springframework.util.StringUtils;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.UrlPathHelper;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Forwards GET/HEAD requests of the configured paths straight to their static view(e.g. '/home' to '/WEB-INF/page/home.html'), which is
+ * mapped to the container's default servlet in web.xml, so pages without a model skip the DispatcherServlet, its interceptors and the view
+ * resolution.
+ */
+public class StaticViewFilter extends OncePerRequestFilter
+{
+    private final UrlPathHelper urlPathHelper = new UrlPathHelper();
+    private final Map<String, String> views = new HashMap<>();
+
+    /**
+     * Comma separated 'path=resource' pairs, e.g. '/home=/WEB-INF/page/home.html'.
+     */
+    public void setViews(String views)
+    {
+        this.views.clear();
+        for(String pair : StringUtils.tokenizeToStringArray(views, ",\n"))
+        {
+            String[] entry = StringUtils.split(pair, "=");
+            if(entry == null)
+            {
+                throw new IllegalArgumentException("Illegal view mapping: " + pair);
+            }
+            this.views.put(entry[0].trim(), entry[1].trim());
+        }
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request)
+    {
+        String method = request.getMethod();
+        return !("GET".equals(method) || "HEAD".equals(method)) || !views.containsKey(urlPathHelper.getPathWithinApplication(request));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException
+    {
+        request.getRequestDispatcher(views.get(urlPathHelper.getPathWithinApplication(request))).forward(request, response);
+    }
+}
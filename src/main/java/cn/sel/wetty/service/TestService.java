@@ -24,14 +24,34 @@
 package cn.sel.wetty.service;
 
 import cn.sel.wetty.entity.TestEntity;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 @Component
 public class TestService
 {
     private static final String MSG = "Wetty";
+    private final Executor executor;
+
+    /**
+     * @param executor runs the asynchronous variants, off the container threads.
+     */
+    @Autowired
+    public TestService(@Qualifier("serviceExecutor") Executor executor)
+    {
+        Assert.notNull(executor);
+        this.executor = executor;
+    }
 
     public String getMessage()
     {
@@ -42,4 +62,39 @@ public class TestService
     {
         return new TestEntity(123, MSG, new Date());
     }
+
+    public List<TestEntity> getObjects(int count)
+    {
+        List<TestEntity> objects = new ArrayList<>(count);
+        Date date = new Date();
+        for(int i = 0; i < count; i++)
+        {
+            objects.add(new TestEntity(i, MSG, date));
+        }
+        return objects;
+    }
+
+    /**
+     * @return the objects, created only as the stream is consumed.
+     */
+    public Stream<TestEntity> streamObjects(int count)
+    {
+        Date date = new Date();
+        return IntStream.range(0, count).mapToObj(i -> new TestEntity(i, MSG, date));
+    }
+
+    public CompletableFuture<String> getMessageAsync()
+    {
+        return CompletableFuture.supplyAsync(this::getMessage, executor);
+    }
+
+    public CompletableFuture<TestEntity> getObjectAsync()
+    {
+        return CompletableFuture.supplyAsync(this::getObject, executor);
+    }
+
+    public CompletableFuture<List<TestEntity>> getObjectsAsync(int count)
+    {
+        return CompletableFuture.supplyAsync(() -> getObjects(count), executor);
+    }
 }
\ No newline at end of file